@@ -1,18 +1,29 @@
 package com.cleanroommc.groovysandbox;
 
+import com.cleanroommc.groovysandbox.interception.EnforcingCallInterceptor;
 import com.cleanroommc.groovysandbox.interception.InterceptionManager;
 import com.cleanroommc.groovysandbox.primer.ClassTransformerPrimer;
 import groovy.lang.GroovyShell;
 import org.codehaus.groovy.control.CompilerConfiguration;
 
+import java.io.File;
+import java.io.IOException;
+
 public class GroovySandbox {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         InterceptionManager.INSTANCE.initDefaultBans();
+        InterceptionManager.INSTANCE.addCallInterceptor(new EnforcingCallInterceptor());
         CompilerConfiguration config = new CompilerConfiguration();
         config.addCompilationCustomizers(ClassTransformerPrimer.PRIMER);
         GroovyShell shell = new GroovyShell(config);
-        shell.evaluate(""); // Insert test snippet here
+        if (args.length == 0) {
+            shell.evaluate(""); // Insert test snippet here
+        }
+        // Scripts given by path, such as the ones in src/test/resources/regression
+        for (String script : args) {
+            shell.evaluate(new File(script));
+        }
     }
 
 }
@@ -0,0 +1,151 @@
+package com.cleanroommc.groovysandbox.compiler;
+
+import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovyShell;
+import org.codehaus.groovy.control.MultipleCompilationErrorsException;
+import org.codehaus.groovy.control.messages.ExceptionMessage;
+import org.codehaus.groovy.control.messages.Message;
+import org.codehaus.groovy.control.messages.SyntaxErrorMessage;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compiles many scripts at once, spread over the threads of a {@link ForkJoinPool}.
+ * <p>
+ * Each script is compiled on its own, named after the name it was given, so that what scripts compile to doesn't depend on which thread
+ * compiled them or in which order. As {@link com.cleanroommc.groovysandbox.primer.ClassTransformerPrimer} transforms with a transformer per
+ * thread, the scripts are sandboxed just like scripts compiled one by one. Results are given in the order the scripts were, along with
+ * every security violation that failed a script.
+ */
+public class BatchCompiler {
+
+    /**
+     * Compiles one script, such as {@link ScriptCache#parseClass} or {@link BytecodeCache#parseClass}.
+     */
+    @FunctionalInterface
+    public interface ScriptCompiler {
+
+        Class<?> parseClass(GroovyClassLoader loader, String text, String name) throws Exception;
+
+    }
+
+    private final GroovyClassLoader loader;
+    private final ScriptCompiler compiler;
+
+    public BatchCompiler(GroovyClassLoader loader) {
+        this(loader, (scriptLoader, text, name) -> scriptLoader.parseClass(new GroovyCodeSource(text, name, GroovyShell.DEFAULT_CODE_BASE), false));
+    }
+
+    public BatchCompiler(GroovyClassLoader loader, ScriptCompiler compiler) {
+        this.loader = loader;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Compiles the scripts over the common pool.
+     *
+     * @param sources the sources of the scripts by their file names, such as {@code Script1.groovy}
+     */
+    public List<Result> compile(Map<String, String> sources) {
+        return compile(sources, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param sources the sources of the scripts by their file names, such as {@code Script1.groovy}
+     * @return the result for each script, in the order of the sources
+     */
+    public List<Result> compile(Map<String, String> sources, ForkJoinPool pool) {
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(sources.size());
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            tasks.add(pool.submit(() -> compile(source.getKey(), source.getValue())));
+        }
+        List<Result> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Result> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    private Result compile(String name, String text) {
+        try {
+            return new Result(name, this.compiler.parseClass(this.loader, text, name), null);
+        } catch (Exception | LinkageError e) {
+            return new Result(name, null, e);
+        }
+    }
+
+    public static class Result {
+
+        private final String name;
+        private final Class<?> scriptClass;
+        private final Throwable failure;
+        private final List<SandboxSecurityException> violations;
+
+        Result(String name, Class<?> scriptClass, Throwable failure) {
+            this.name = name;
+            this.scriptClass = scriptClass;
+            this.failure = failure;
+            this.violations = failure == null ? Collections.emptyList() : Collections.unmodifiableList(violationsOf(failure));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /**
+         * @return the class of the script, or null if it failed to compile
+         */
+        public Class<?> getScriptClass() {
+            return scriptClass;
+        }
+
+        /**
+         * @return why the script failed to compile, or null if it didn't
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return every security violation the script failed to compile with
+         */
+        public List<SandboxSecurityException> getViolations() {
+            return violations;
+        }
+
+        private static List<SandboxSecurityException> violationsOf(Throwable failure) {
+            List<SandboxSecurityException> violations = new ArrayList<>();
+            if (failure instanceof MultipleCompilationErrorsException) {
+                for (Message message : ((MultipleCompilationErrorsException) failure).getErrorCollector().getErrors()) {
+                    Throwable cause = message instanceof SyntaxErrorMessage ? ((SyntaxErrorMessage) message).getCause() :
+                            message instanceof ExceptionMessage ? ((ExceptionMessage) message).getCause() : null;
+                    addViolation(violations, cause);
+                }
+            } else {
+                addViolation(violations, failure);
+            }
+            return violations;
+        }
+
+        private static void addViolation(List<SandboxSecurityException> violations, Throwable throwable) {
+            // Rejected references are the causes of syntax errors, exceptions of the transformer are wrapped
+            Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (; throwable != null && seen.add(throwable); throwable = throwable.getCause()) {
+                if (throwable instanceof SandboxSecurityException) {
+                    violations.add((SandboxSecurityException) throwable);
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,522 @@
+package com.cleanroommc.groovysandbox.compiler;
+
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import com.cleanroommc.groovysandbox.primer.ClassTransformerPrimer;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.tools.GroovyClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the bytecode of compiled scripts on disk, so that scripts compiled in an earlier run are defined from it rather than parsed,
+ * transformed and compiled all over again.
+ * <p>
+ * The bytecode of every class is appended to a data file, and where to find the classes of each script to an index file. Scripts are
+ * looked up by a hash of their name and source, the bytecode of a script is read through a memory mapping of just that script.
+ * The index starts with a fingerprint of everything else that decides what scripts compile to: a hash of the classes of the sandbox,
+ * the version of Groovy, the bans, the primers and target of the {@link CompilerConfiguration}, and a fingerprint given by the host for
+ * anything the sandbox can't see into, such as its interceptors and transformations. The files are emptied as soon as any of that changes.
+ * <p>
+ * Records are only ever appended, a record cut short by a crash is dropped the next time the files are opened. Only the latest source of
+ * each script name is kept as the files are opened, and once earlier ones make up most of the data file, the rest is copied to new files
+ * replacing the old ones. The files may only be used by one cache at a time.
+ */
+public class BytecodeCache implements AutoCloseable {
+
+    private static final String DATA_FILE = "bytecode.dat";
+    private static final String INDEX_FILE = "bytecode.idx";
+    private static final int MAGIC = 0x53424243;
+    /**
+     * Bumped whenever the layout of the files changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+    /**
+     * The classes of the sandbox, from the transformer down to the runtime compiled scripts link against.
+     */
+    private static final String SANDBOX_PACKAGE = "com/cleanroommc/groovysandbox/";
+
+    private final Path directory;
+    private final CompilerConfiguration config;
+    private FileChannel data;
+    private FileChannel index;
+    private final Map<ByteBuffer, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * @param policyFingerprint anything the host configured that changes what scripts compile to, such as its transformations, empty if nothing
+     */
+    public BytecodeCache(Path directory, CompilerConfiguration config, String policyFingerprint) throws IOException {
+        this.directory = directory;
+        this.config = config;
+        Files.createDirectories(directory);
+        byte[] fingerprint = hash(fingerprint(config, policyFingerprint));
+        open();
+        if (!readIndex(fingerprint)) {
+            this.entries.clear();
+            this.data.truncate(0);
+            this.index.truncate(0);
+            writeHeader(this.index, fingerprint);
+        } else if (this.data.size() > 2 * liveSize()) {
+            compact(fingerprint);
+        }
+    }
+
+    /**
+     * Same as {@link GroovyClassLoader#parseClass(String, String)}, but the bytecode of the script is only compiled if it isn't on disk.
+     * The classes of the script are defined by a loader of their own, whose parent is the given loader.
+     *
+     * @param name the file name of the script, such as {@code Script1.groovy}
+     * @return the class of the script
+     */
+    public Class<?> parseClass(GroovyClassLoader loader, String text, String name) throws CompilationFailedException, IOException {
+        ByteBuffer key = ByteBuffer.wrap(hash(name + '\0' + text));
+        Map<String, byte[]> classes;
+        String scriptClassName;
+        Entry entry = get(key);
+        if (entry != null) {
+            classes = read(entry);
+            scriptClassName = entry.scriptClassName;
+        } else {
+            // Compiled without holding the lock, scripts compiled by two threads at once are simply compiled twice
+            CompilationUnit unit = new CompilationUnit(this.config, null, loader);
+            unit.addSource(name, text);
+            unit.compile(Phases.CLASS_GENERATION);
+            classes = new LinkedHashMap<>();
+            for (GroovyClass groovyClass : unit.getClasses()) {
+                classes.put(groovyClass.getName(), groovyClass.getBytes());
+            }
+            scriptClassName = unit.getFirstClassNode().getName();
+            put(key, name, scriptClassName, classes);
+        }
+        try {
+            return Class.forName(scriptClassName, false, new CachedClassLoader(loader, classes));
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Bytecode of " + name + " misses its script class " + scriptClassName, e);
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.data.close();
+        } finally {
+            this.index.close();
+        }
+    }
+
+    private synchronized Entry get(ByteBuffer key) {
+        return this.entries.get(key);
+    }
+
+    /**
+     * Maps the bytecode of the script alone, as the data file may well be larger than one mapping could be.
+     */
+    private Map<String, byte[]> read(Entry entry) throws IOException {
+        long start = entry.start();
+        MappedByteBuffer buffer = this.data.map(FileChannel.MapMode.READ_ONLY, start, entry.end() - start);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < entry.classNames.length; i++) {
+            byte[] bytes = new byte[entry.lengths[i]];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position((int) (entry.offsets[i] - start));
+            slice.get(bytes);
+            classes.put(entry.classNames[i], bytes);
+        }
+        return classes;
+    }
+
+    private synchronized void put(ByteBuffer key, String name, String scriptClassName, Map<String, byte[]> classes) throws IOException {
+        if (this.entries.containsKey(key)) {
+            return;
+        }
+        long dataEnd = this.data.size();
+        String[] classNames = classes.keySet().toArray(new String[0]);
+        long[] offsets = new long[classNames.length];
+        int[] lengths = new int[classNames.length];
+        long offset = dataEnd;
+        for (int i = 0; i < classNames.length; i++) {
+            byte[] bytes = classes.get(classNames[i]);
+            writeFully(this.data, ByteBuffer.wrap(bytes), offset);
+            offsets[i] = offset;
+            lengths[i] = bytes.length;
+            offset += bytes.length;
+        }
+        Entry entry = new Entry(name, scriptClassName, classNames, offsets, lengths);
+        // The data goes first, so that the index never points past it
+        writeFully(this.index, ByteBuffer.wrap(record(key, entry)), this.index.size());
+        this.entries.put(key, entry);
+    }
+
+    private void open() throws IOException {
+        this.data = FileChannel.open(this.directory.resolve(DATA_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(this.directory.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Reads the index, dropping a record cut short at its end, along with the records of earlier sources of a script.
+     * The index is read rather than mapped, which would keep it from being truncated on some platforms.
+     *
+     * @return false if the index is empty, unreadable or of another fingerprint
+     */
+    private boolean readIndex(byte[] fingerprint) throws IOException {
+        long size = this.index.size();
+        if (size == 0 || size > Integer.MAX_VALUE) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        readFully(this.index, buffer, 0);
+        buffer.flip();
+        long dataSize = this.data.size();
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return false;
+            }
+            byte[] header = new byte[buffer.getInt()];
+            buffer.get(header);
+            if (!Arrays.equals(header, fingerprint)) {
+                return false;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return false;
+        }
+        Map<String, ByteBuffer> latest = new HashMap<>();
+        int end = buffer.position();
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length);
+            try {
+                byte[] key = new byte[record.getInt()];
+                record.get(key);
+                Entry entry = readEntry(record);
+                if (entry.end() > dataSize) {
+                    break;
+                }
+                ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+                ByteBuffer earlier = latest.put(entry.name, wrappedKey);
+                if (earlier != null) {
+                    this.entries.remove(earlier);
+                }
+                this.entries.put(wrappedKey, entry);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                break;
+            }
+            end = buffer.position();
+        }
+        if (end < size) {
+            // Appending after a broken record would leave the ones after it unreadable
+            this.index.truncate(end);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bytecode of the scripts in the index to new files, which then replace the old ones.
+     * The old index is deleted first, so that the files are taken as empty should this be cut short.
+     */
+    private void compact(byte[] fingerprint) throws IOException {
+        Path compactedData = this.directory.resolve(DATA_FILE + ".tmp");
+        Path compactedIndex = this.directory.resolve(INDEX_FILE + ".tmp");
+        Map<ByteBuffer, Entry> compacted = new LinkedHashMap<>();
+        try (FileChannel newData = FileChannel.open(compactedData, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel newIndex = FileChannel.open(compactedIndex, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(newIndex, fingerprint);
+            long offset = 0;
+            for (Map.Entry<ByteBuffer, Entry> indexed : this.entries.entrySet()) {
+                Entry entry = indexed.getValue();
+                long[] offsets = new long[entry.offsets.length];
+                for (int i = 0; i < offsets.length; i++) {
+                    transferFully(this.data, entry.offsets[i], entry.lengths[i], newData, offset);
+                    offsets[i] = offset;
+                    offset += entry.lengths[i];
+                }
+                Entry moved = new Entry(entry.name, entry.scriptClassName, entry.classNames, offsets, entry.lengths);
+                writeFully(newIndex, ByteBuffer.wrap(record(indexed.getKey(), moved)), newIndex.size());
+                compacted.put(indexed.getKey(), moved);
+            }
+            newData.force(true);
+            newIndex.force(true);
+        }
+        close();
+        Files.delete(this.directory.resolve(INDEX_FILE));
+        Files.move(compactedData, this.directory.resolve(DATA_FILE), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(compactedIndex, this.directory.resolve(INDEX_FILE));
+        open();
+        this.entries.clear();
+        this.entries.putAll(compacted);
+    }
+
+    /**
+     * @return the length of the bytecode the index points to
+     */
+    private long liveSize() {
+        long size = 0;
+        for (Entry entry : this.entries.values()) {
+            for (int length : entry.lengths) {
+                size += length;
+            }
+        }
+        return size;
+    }
+
+    private static void writeHeader(FileChannel index, byte[] fingerprint) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12 + fingerprint.length);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(fingerprint.length).put(fingerprint).flip();
+        writeFully(index, header, 0);
+    }
+
+    private static Entry readEntry(ByteBuffer record) {
+        String name = readString(record);
+        String scriptClassName = readString(record);
+        int count = record.getInt();
+        String[] classNames = new String[count];
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            classNames[i] = readString(record);
+            offsets[i] = record.getLong();
+            lengths[i] = record.getInt();
+        }
+        return new Entry(name, scriptClassName, classNames, offsets, lengths);
+    }
+
+    private static byte[] record(ByteBuffer key, Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(key.remaining());
+            out.write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+            writeString(out, entry.name);
+            writeString(out, entry.scriptClassName);
+            out.writeInt(entry.classNames.length);
+            for (int i = 0; i < entry.classNames.length; i++) {
+                writeString(out, entry.classNames[i]);
+                out.writeLong(entry.offsets[i]);
+                out.writeInt(entry.lengths[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        // Length of what follows it
+        ByteBuffer.wrap(record).putInt(record.length - 4);
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void transferFully(FileChannel from, long position, long count, FileChannel to, long toPosition) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 65536));
+        while (count > 0) {
+            buffer.clear().limit((int) Math.min(count, buffer.capacity()));
+            readFully(from, buffer, position);
+            buffer.flip();
+            writeFully(to, buffer, toPosition);
+            position += buffer.limit();
+            toPosition += buffer.limit();
+            count -= buffer.limit();
+        }
+    }
+
+    private static String fingerprint(CompilerConfiguration config, String policyFingerprint) {
+        StringBuilder fingerprint = new StringBuilder();
+        String sandboxHash = sandboxHash();
+        // Without it, what is on disk may well have been compiled by another build of the sandbox
+        fingerprint.append("sandbox ").append(sandboxHash != null ? sandboxHash : UUID.randomUUID().toString()).append('\n');
+        fingerprint.append("groovy ").append(GroovySystem.getVersion()).append('\n');
+        fingerprint.append("target ").append(config.getTargetBytecode()).append('\n');
+        for (CompilationCustomizer customizer : config.getCompilationCustomizers()) {
+            String customizerName = customizer == ClassTransformerPrimer.PRIMER ? "primer" :
+                    customizer == ClassTransformerPrimer.INDY_PRIMER ? "indy primer" : customizer.getClass().getName();
+            fingerprint.append("customizer ").append(customizerName).append('\n');
+        }
+        fingerprint.append(InterceptionManager.INSTANCE.getBanFingerprint());
+        fingerprint.append("policy ").append(policyFingerprint).append('\n');
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return a hash of the classes of the sandbox, which decide what scripts compile to, or null if they can't be read
+     */
+    private static String sandboxHash() {
+        try {
+            CodeSource source = BytecodeCache.class.getProtectionDomain().getCodeSource();
+            if (source == null) {
+                return null;
+            }
+            Path location = Paths.get(source.getLocation().toURI());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (Files.isDirectory(location)) {
+                Path root = location.resolve(SANDBOX_PACKAGE);
+                List<Path> classFiles;
+                try (Stream<Path> files = Files.walk(root)) {
+                    classFiles = files.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+                }
+                for (Path classFile : classFiles) {
+                    digest.update(root.relativize(classFile).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(classFile));
+                }
+            } else {
+                try (JarFile jar = new JarFile(location.toFile())) {
+                    List<JarEntry> classEntries = jar.stream()
+                            .filter(entry -> entry.getName().startsWith(SANDBOX_PACKAGE) && entry.getName().endsWith(".class"))
+                            .sorted(Comparator.comparing(JarEntry::getName))
+                            .collect(Collectors.toList());
+                    for (JarEntry classEntry : classEntries) {
+                        digest.update(classEntry.getName().getBytes(StandardCharsets.UTF_8));
+                        try (InputStream in = jar.getInputStream(classEntry)) {
+                            byte[] buffer = new byte[8192];
+                            for (int read; (read = in.read(buffer)) != -1; ) {
+                                digest.update(buffer, 0, read);
+                            }
+                        }
+                    }
+                }
+            }
+            return new BigInteger(1, digest.digest()).toString(16);
+        } catch (IOException | URISyntaxException | IllegalArgumentException | FileSystemNotFoundException | SecurityException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] hash(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Entry {
+
+        private final String name;
+        private final String scriptClassName;
+        private final String[] classNames;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        private Entry(String name, String scriptClassName, String[] classNames, long[] offsets, int[] lengths) {
+            this.name = name;
+            this.scriptClassName = scriptClassName;
+            this.classNames = classNames;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        private long start() {
+            long start = end();
+            for (long offset : this.offsets) {
+                start = Math.min(start, offset);
+            }
+            return start;
+        }
+
+        private long end() {
+            long end = 0;
+            for (int i = 0; i < this.offsets.length; i++) {
+                if (this.offsets[i] < 0 || this.lengths[i] < 0) {
+                    throw new IllegalArgumentException("Negative offset or length");
+                }
+                end = Math.max(end, this.offsets[i] + this.lengths[i]);
+            }
+            return end;
+        }
+
+    }
+
+    /**
+     * Defines the classes of one script as they are first loaded, so that they may refer to each other in any order.
+     */
+    static class CachedClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        CachedClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = new HashMap<>(classes);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            // Its own classes first, the parent may have been given a script of the same name
+            Class<?> type = findLoadedClass(name);
+            if (type == null) {
+                byte[] bytes = this.classes.remove(name);
+                type = bytes != null ? defineClass(name, bytes, 0, bytes.length) : super.loadClass(name, false);
+            }
+            if (resolve) {
+                resolveClass(type);
+            }
+            return type;
+        }
+
+    }
+
+}
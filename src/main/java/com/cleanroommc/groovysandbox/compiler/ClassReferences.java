@@ -0,0 +1,179 @@
+package com.cleanroommc.groovysandbox.compiler;
+
+import org.codehaus.groovy.ast.*;
+import org.codehaus.groovy.ast.expr.*;
+import org.codehaus.groovy.ast.stmt.CatchStatement;
+import org.codehaus.groovy.ast.stmt.ForStatement;
+import org.codehaus.groovy.control.SourceUnit;
+
+import java.util.Set;
+
+/**
+ * Collects the names of the classes a class refers to, as resolved right before it is transformed.
+ * <p>
+ * Names that didn't resolve to a class, as Groovy takes them for variables or properties instead, are collected too, as they may well
+ * resolve once a script defines a class of that name. Star imports are collected as the package followed by {@code *}.
+ */
+class ClassReferences extends ClassCodeVisitorSupport {
+
+    private final SourceUnit sourceUnit;
+    private final Set<String> names;
+
+    ClassReferences(SourceUnit sourceUnit, Set<String> names) {
+        this.sourceUnit = sourceUnit;
+        this.names = names;
+    }
+
+    @Override
+    protected SourceUnit getSourceUnit() {
+        return sourceUnit;
+    }
+
+    @Override
+    public void visitClass(ClassNode node) {
+        add(node.getUnresolvedSuperClass());
+        for (ClassNode type : node.getInterfaces()) {
+            add(type);
+        }
+        super.visitClass(node);
+    }
+
+    @Override
+    public void visitImports(ModuleNode node) {
+        if (node == null) {
+            return;
+        }
+        for (ImportNode importNode : node.getImports()) {
+            add(importNode.getType());
+        }
+        for (ImportNode importNode : node.getStaticImports().values()) {
+            add(importNode.getType());
+        }
+        for (ImportNode importNode : node.getStaticStarImports().values()) {
+            add(importNode.getType());
+        }
+        for (ImportNode importNode : node.getStarImports()) {
+            this.names.add(importNode.getPackageName() + '*');
+        }
+    }
+
+    @Override
+    public void visitAnnotations(AnnotatedNode node) {
+        for (AnnotationNode annotation : node.getAnnotations()) {
+            add(annotation.getClassNode());
+        }
+        super.visitAnnotations(node);
+    }
+
+    @Override
+    public void visitField(FieldNode node) {
+        add(node.getOriginType());
+        super.visitField(node);
+    }
+
+    @Override
+    protected void visitConstructorOrMethod(MethodNode node, boolean isConstructor) {
+        add(node.getReturnType());
+        add(node.getParameters());
+        for (ClassNode type : node.getExceptions()) {
+            add(type);
+        }
+        super.visitConstructorOrMethod(node, isConstructor);
+    }
+
+    @Override
+    public void visitForLoop(ForStatement forLoop) {
+        add(forLoop.getVariableType());
+        super.visitForLoop(forLoop);
+    }
+
+    @Override
+    public void visitCatchStatement(CatchStatement statement) {
+        add(statement.getExceptionType());
+        super.visitCatchStatement(statement);
+    }
+
+    @Override
+    public void visitClassExpression(ClassExpression expression) {
+        add(expression.getType());
+        super.visitClassExpression(expression);
+    }
+
+    @Override
+    public void visitConstructorCallExpression(ConstructorCallExpression call) {
+        add(call.getType());
+        super.visitConstructorCallExpression(call);
+    }
+
+    @Override
+    public void visitStaticMethodCallExpression(StaticMethodCallExpression call) {
+        add(call.getOwnerType());
+        super.visitStaticMethodCallExpression(call);
+    }
+
+    @Override
+    public void visitCastExpression(CastExpression expression) {
+        add(expression.getType());
+        super.visitCastExpression(expression);
+    }
+
+    @Override
+    public void visitArrayExpression(ArrayExpression expression) {
+        add(expression.getElementType());
+        super.visitArrayExpression(expression);
+    }
+
+    @Override
+    public void visitClosureExpression(ClosureExpression expression) {
+        add(expression.getParameters());
+        super.visitClosureExpression(expression);
+    }
+
+    @Override
+    public void visitVariableExpression(VariableExpression expression) {
+        if (expression.getAccessedVariable() instanceof DynamicVariable) {
+            this.names.add(expression.getName());
+        } else {
+            add(expression.getOriginType());
+        }
+        super.visitVariableExpression(expression);
+    }
+
+    private void add(Parameter[] parameters) {
+        if (parameters != null) {
+            for (Parameter parameter : parameters) {
+                add(parameter.getOriginType());
+            }
+        }
+    }
+
+    private void add(ClassNode type) {
+        if (type == null) {
+            return;
+        }
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (ClassHelper.isPrimitiveType(type)) {
+            return;
+        }
+        this.names.add(type.getName());
+        GenericsType[] generics = type.getGenericsTypes();
+        if (generics != null) {
+            for (GenericsType generic : generics) {
+                // Placeholders are declared by the class or method, their bounds may well refer back to it
+                if (generic.isPlaceholder()) {
+                    continue;
+                }
+                add(generic.getType());
+                add(generic.getLowerBound());
+                if (generic.getUpperBounds() != null) {
+                    for (ClassNode bound : generic.getUpperBounds()) {
+                        add(bound);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,345 @@
+package com.cleanroommc.groovysandbox.compiler;
+
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import com.cleanroommc.groovysandbox.transformer.TransformationManager;
+import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.ErrorCollector;
+import org.codehaus.groovy.control.MultipleCompilationErrorsException;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.messages.Message;
+import org.codehaus.groovy.control.messages.SyntaxErrorMessage;
+import org.codehaus.groovy.tools.GroovyClass;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a set of scripts compiled, only recompiling the scripts a change affects when the set is updated.
+ * <p>
+ * The names of the classes each script refers to are collected as it is compiled, right before it is transformed, along with the names
+ * of the classes it defines. A script is recompiled when its source changed, when it failed to compile before, and when a class it
+ * refers to is about to be redefined or went away, and so on for the scripts referring to its classes. Names that a script used but
+ * that didn't resolve to a class get it recompiled as soon as a script defines a class of that name. Every other script keeps its
+ * classes as they are.
+ * <p>
+ * Scripts being recompiled are compiled together, so that they may refer to each other's classes. Their classes are defined by a loader
+ * of their own, whose parent {@link #getClassLoader()} resolves the classes of every script as they were last compiled. Should any of
+ * them fail, the others are compiled again without them, so that only the scripts that failed and those depending on them fail.
+ * Everything is recompiled once bans or transformations changed.
+ */
+public class IncrementalCompiler {
+
+    private final CompilerConfiguration config;
+    private final ScriptLoader loader;
+    /**
+     * Every class of the scripts as they were last compiled, by name.
+     */
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+    private final Map<String, Unit> units = new HashMap<>();
+    private int banVersion = -1;
+    private int transformationVersion = -1;
+
+    public IncrementalCompiler(ClassLoader parent, CompilerConfiguration config) {
+        this.config = config;
+        this.loader = new ScriptLoader(parent, config);
+    }
+
+    /**
+     * @return the loader resolving the classes of every script as they were last compiled
+     */
+    public GroovyClassLoader getClassLoader() {
+        return loader;
+    }
+
+    /**
+     * Recompiles whatever the changes to the scripts affect, forgetting the scripts that are no longer among them.
+     *
+     * @param sources the sources of every script by their file names, such as {@code Script1.groovy}
+     * @return the result for each script, in the order of the sources, the same as before for scripts that weren't recompiled
+     */
+    public synchronized List<BatchCompiler.Result> update(Map<String, String> sources) {
+        int banVersion = InterceptionManager.INSTANCE.getBanVersion();
+        int transformationVersion = TransformationManager.INSTANCE.getVersion();
+        boolean stale = banVersion != this.banVersion || transformationVersion != this.transformationVersion;
+        this.banVersion = banVersion;
+        this.transformationVersion = transformationVersion;
+        Set<String> known = new HashSet<>(this.classes.keySet());
+        Set<String> invalidated = new HashSet<>();
+        for (Iterator<Map.Entry<String, Unit>> iterator = this.units.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Unit> entry = iterator.next();
+            if (!sources.containsKey(entry.getKey())) {
+                this.classes.keySet().removeAll(entry.getValue().classes);
+                invalidated.addAll(entry.getValue().classes);
+                iterator.remove();
+            }
+        }
+        Map<String, byte[]> hashes = new HashMap<>();
+        Set<String> pending = new HashSet<>();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            byte[] hash = hash(source.getKey() + '\0' + source.getValue());
+            hashes.put(source.getKey(), hash);
+            Unit unit = this.units.get(source.getKey());
+            if (stale || unit == null || !unit.result.isSuccess() || !Arrays.equals(unit.hash, hash)) {
+                pending.add(source.getKey());
+            }
+        }
+        // Each newly defined class only gets the scripts that may have meant it recompiled once
+        Set<String> announced = new HashSet<>();
+        while (!pending.isEmpty()) {
+            addDependents(pending, invalidated);
+            List<String> names = new ArrayList<>();
+            for (String name : sources.keySet()) {
+                if (pending.contains(name)) {
+                    names.add(name);
+                    Unit unit = this.units.get(name);
+                    if (unit != null) {
+                        this.classes.keySet().removeAll(unit.classes);
+                    }
+                }
+            }
+            compile(names, sources, hashes);
+            Set<String> added = new HashSet<>();
+            for (String name : names) {
+                for (String className : this.units.get(name).classes) {
+                    if (!known.contains(className) && announced.add(className)) {
+                        added.add(className);
+                    }
+                }
+            }
+            pending = new HashSet<>();
+            invalidated = new HashSet<>();
+            if (!added.isEmpty()) {
+                for (Map.Entry<String, Unit> entry : this.units.entrySet()) {
+                    if (!names.contains(entry.getKey()) && entry.getValue().refersTo(added)) {
+                        pending.add(entry.getKey());
+                    }
+                }
+            }
+        }
+        List<BatchCompiler.Result> results = new ArrayList<>(sources.size());
+        for (String name : sources.keySet()) {
+            results.add(this.units.get(name).result);
+        }
+        return results;
+    }
+
+    /**
+     * Adds every script referring to a class that is going away or about to be redefined, be it by a script that is pending already.
+     */
+    private void addDependents(Set<String> pending, Set<String> invalidated) {
+        for (String name : pending) {
+            Unit unit = this.units.get(name);
+            if (unit != null) {
+                invalidated.addAll(unit.classes);
+            }
+        }
+        boolean added;
+        do {
+            added = false;
+            for (Map.Entry<String, Unit> entry : this.units.entrySet()) {
+                if (!pending.contains(entry.getKey()) && entry.getValue().refersTo(invalidated)) {
+                    pending.add(entry.getKey());
+                    invalidated.addAll(entry.getValue().classes);
+                    added = true;
+                }
+            }
+        } while (added);
+    }
+
+    private void compile(List<String> names, Map<String, String> sources, Map<String, byte[]> hashes) {
+        List<String> remaining = new ArrayList<>(names);
+        while (!remaining.isEmpty()) {
+            try {
+                compileTogether(remaining, sources, hashes);
+                return;
+            } catch (MultipleCompilationErrorsException e) {
+                // Leave out the scripts errors were reported for, the others may well compile without them
+                Map<String, ErrorCollector> errors = errorsBySource(e, remaining);
+                if (errors.isEmpty()) {
+                    compileOneByOne(remaining, sources, hashes);
+                    return;
+                }
+                for (Map.Entry<String, ErrorCollector> entry : errors.entrySet()) {
+                    fail(entry.getKey(), hashes, new MultipleCompilationErrorsException(entry.getValue()));
+                    remaining.remove(entry.getKey());
+                }
+            } catch (Exception | LinkageError e) {
+                compileOneByOne(remaining, sources, hashes);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tells which of the scripts failed when that can't be told from the errors, compiling those that don't depend on the ones left first.
+     * Scripts that depend on each other fail here, as they only compile together.
+     */
+    private void compileOneByOne(List<String> names, Map<String, String> sources, Map<String, byte[]> hashes) {
+        List<String> remaining = new ArrayList<>(names);
+        Map<String, Throwable> failures = new HashMap<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Iterator<String> iterator = remaining.iterator(); iterator.hasNext(); ) {
+                String name = iterator.next();
+                try {
+                    compileTogether(Collections.singletonList(name), sources, hashes);
+                    iterator.remove();
+                    progress = true;
+                } catch (Exception | LinkageError e) {
+                    failures.put(name, e);
+                }
+            }
+        }
+        for (String name : remaining) {
+            fail(name, hashes, failures.get(name));
+        }
+    }
+
+    private void fail(String name, Map<String, byte[]> hashes, Throwable failure) {
+        this.units.put(name, new Unit(hashes.get(name), Collections.emptySet(), Collections.emptySet(), new BatchCompiler.Result(name, null, failure)));
+    }
+
+    /**
+     * @return the errors of each of the scripts, or nothing if any of the errors can't be told apart by script
+     */
+    private Map<String, ErrorCollector> errorsBySource(MultipleCompilationErrorsException exception, List<String> names) {
+        Map<String, ErrorCollector> errors = new LinkedHashMap<>();
+        for (Message message : exception.getErrorCollector().getErrors()) {
+            String name = message instanceof SyntaxErrorMessage ? ((SyntaxErrorMessage) message).getCause().getSourceLocator() : null;
+            if (name == null || !names.contains(name)) {
+                return Collections.emptyMap();
+            }
+            errors.computeIfAbsent(name, k -> new ErrorCollector(this.config)).addErrorAndContinue(message);
+        }
+        return errors;
+    }
+
+    private void compileTogether(List<String> names, Map<String, String> sources, Map<String, byte[]> hashes) throws CompilationFailedException, ClassNotFoundException {
+        CompilationUnit unit = new CompilationUnit(this.config, null, this.loader);
+        Map<String, Set<String>> references = new HashMap<>();
+        // Ahead of the primer, while the classes are resolved but not yet transformed
+        unit.addFirstPhaseOperation((source, context, classNode) ->
+                new ClassReferences(source, references.computeIfAbsent(source.getName(), k -> new HashSet<>())).visitClass(classNode),
+                Phases.CANONICALIZATION);
+        Map<String, SourceUnit> sourceUnits = new LinkedHashMap<>();
+        for (String name : names) {
+            sourceUnits.put(name, unit.addSource(name, sources.get(name)));
+        }
+        unit.compile(Phases.CLASS_GENERATION);
+        Map<String, String> owners = new HashMap<>();
+        for (Map.Entry<String, SourceUnit> entry : sourceUnits.entrySet()) {
+            for (ClassNode classNode : entry.getValue().getAST().getClasses()) {
+                owners.put(classNode.getName(), entry.getKey());
+            }
+        }
+        Map<String, byte[]> bytecode = new LinkedHashMap<>();
+        Map<String, Set<String>> classesOf = new HashMap<>();
+        for (GroovyClass groovyClass : unit.getClasses()) {
+            bytecode.put(groovyClass.getName(), groovyClass.getBytes());
+            classesOf.computeIfAbsent(ownerOf(groovyClass.getName(), owners), k -> new HashSet<>()).add(groovyClass.getName());
+        }
+        ClassLoader generation = new BytecodeCache.CachedClassLoader(this.loader, bytecode);
+        Map<String, Class<?>> defined = new HashMap<>();
+        for (String className : bytecode.keySet()) {
+            defined.put(className, Class.forName(className, false, generation));
+        }
+        this.classes.putAll(defined);
+        for (Map.Entry<String, SourceUnit> entry : sourceUnits.entrySet()) {
+            String name = entry.getKey();
+            Class<?> scriptClass = defined.get(entry.getValue().getAST().getClasses().get(0).getName());
+            this.units.put(name, new Unit(hashes.get(name), classesOf.getOrDefault(name, Collections.emptySet()),
+                    references.getOrDefault(name, Collections.emptySet()), new BatchCompiler.Result(name, scriptClass, null)));
+        }
+    }
+
+    /**
+     * Inner classes and closures are named after the class they are in, down to a class of the module of a script.
+     */
+    private static String ownerOf(String className, Map<String, String> owners) {
+        for (String name = className; ; ) {
+            String owner = owners.get(name);
+            if (owner != null) {
+                return owner;
+            }
+            int index = name.lastIndexOf('$');
+            if (index < 0) {
+                throw new IllegalStateException("Class " + className + " belongs to none of the scripts compiled");
+            }
+            name = name.substring(0, index);
+        }
+    }
+
+    private static byte[] hash(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Unit {
+
+        private final byte[] hash;
+        private final Set<String> classes;
+        /**
+         * Names of the classes the script refers to, see {@link ClassReferences}.
+         */
+        private final Set<String> references;
+        private final BatchCompiler.Result result;
+
+        private Unit(byte[] hash, Set<String> classes, Set<String> references, BatchCompiler.Result result) {
+            this.hash = hash;
+            this.classes = classes;
+            this.references = references;
+            this.result = result;
+        }
+
+        /**
+         * @return true if the script refers to any of the classes, be it by name, by a name that didn't resolve or through a star import
+         */
+        private boolean refersTo(Set<String> classNames) {
+            for (String className : classNames) {
+                if (this.classes.contains(className)) {
+                    continue;
+                }
+                int index = className.lastIndexOf('.');
+                if (this.references.contains(className) || this.references.contains(className.substring(index + 1)) ||
+                        (index >= 0 && this.references.contains(className.substring(0, index + 1) + '*'))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private class ScriptLoader extends GroovyClassLoader {
+
+        private ScriptLoader(ClassLoader parent, CompilerConfiguration config) {
+            super(parent, config);
+        }
+
+        @Override
+        public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve) throws ClassNotFoundException, CompilationFailedException {
+            Class<?> type = classes.get(name);
+            if (type == null) {
+                return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+            }
+            if (resolve) {
+                resolveClass(type);
+            }
+            return type;
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.cleanroommc.groovysandbox.compiler;
+
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import com.cleanroommc.groovysandbox.transformer.TransformationManager;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the classes compiled from scripts, so that scripts compiled before are not parsed, transformed and compiled all over again.
+ * <p>
+ * Classes are looked up by the loader they were compiled by, which decides the {@link org.codehaus.groovy.control.CompilerConfiguration}
+ * and with it the primer, along with the name and a hash of the source of the script, and the versions of the bans and transformations
+ * that were in place, as they change what scripts compile to. Scripts are only ever compiled by one loader per cache, so loaders that
+ * every tenant's scripts are compiled by share the classes of identical scripts.
+ * <p>
+ * The least recently used classes are dropped once there are more than the maximum. Neither loaders nor their classes are kept from being
+ * collected, classes go along with the loader they were compiled by.
+ */
+public class ScriptCache {
+
+    private final int maximumSize;
+    private final Map<Key, WeakReference<Class<?>>> classes;
+    private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<>();
+
+    public ScriptCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.classes = new LinkedHashMap<Key, WeakReference<Class<?>>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, WeakReference<Class<?>>> eldest) {
+                return size() > ScriptCache.this.maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link GroovyShell#parse(String, String)}, but the script class is only compiled if it isn't cached.
+     */
+    public Script parse(GroovyShell shell, String text, String name) throws CompilationFailedException {
+        return InvokerHelper.createScript(parseClass(shell.getClassLoader(), text, name), shell.getContext());
+    }
+
+    /**
+     * @param name the file name of the script, such as {@code Script1.groovy}
+     * @return the class of the script, only compiled by the loader if it isn't cached
+     */
+    public Class<?> parseClass(GroovyClassLoader loader, String text, String name) throws CompilationFailedException {
+        Key key = new Key(loader, name, hash(text), InterceptionManager.INSTANCE.getBanVersion(), TransformationManager.INSTANCE.getVersion(), null);
+        Class<?> scriptClass = get(key);
+        if (scriptClass != null) {
+            return scriptClass;
+        }
+        // Compiled without holding the lock, scripts compiled by two threads at once are simply compiled twice
+        scriptClass = loader.parseClass(new GroovyCodeSource(text, name, GroovyShell.DEFAULT_CODE_BASE), false);
+        put(key, scriptClass);
+        return scriptClass;
+    }
+
+    public synchronized int size() {
+        expungeCollectedLoaders();
+        return this.classes.size();
+    }
+
+    public synchronized void clear() {
+        this.classes.clear();
+    }
+
+    private synchronized Class<?> get(Key key) {
+        expungeCollectedLoaders();
+        WeakReference<Class<?>> reference = this.classes.get(key);
+        return reference == null ? null : reference.get();
+    }
+
+    private synchronized void put(Key key, Class<?> scriptClass) {
+        expungeCollectedLoaders();
+        this.classes.put(new Key(key.loader.get(), key.name, key.hash, key.banVersion, key.transformationVersion, this.collectedLoaders), new WeakReference<>(scriptClass));
+    }
+
+    private void expungeCollectedLoaders() {
+        for (Object reference; (reference = this.collectedLoaders.poll()) != null; ) {
+            this.classes.remove(((LoaderReference) reference).key);
+        }
+    }
+
+    private static byte[] hash(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Key {
+
+        private final LoaderReference loader;
+        private final String name;
+        private final byte[] hash;
+        private final int banVersion;
+        private final int transformationVersion;
+        private final int hashCode;
+
+        /**
+         * @param queue where to enqueue the key once its loader is collected, or null if it is only looked up with
+         */
+        private Key(ClassLoader loader, String name, byte[] hash, int banVersion, int transformationVersion, ReferenceQueue<ClassLoader> queue) {
+            this.loader = new LoaderReference(loader, queue, this);
+            this.name = name;
+            this.hash = hash;
+            this.banVersion = banVersion;
+            this.transformationVersion = transformationVersion;
+            this.hashCode = 31 * (31 * (31 * (31 * System.identityHashCode(loader) + name.hashCode()) + Arrays.hashCode(hash)) + banVersion) + transformationVersion;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) obj;
+            ClassLoader loader = this.loader.get();
+            // Keys of collected loaders only equal themselves
+            return loader != null && loader == key.loader.get() && this.hashCode == key.hashCode && this.banVersion == key.banVersion &&
+                    this.transformationVersion == key.transformationVersion && this.name.equals(key.name) && Arrays.equals(this.hash, key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+    private static class LoaderReference extends WeakReference<ClassLoader> {
+
+        private final Key key;
+
+        private LoaderReference(ClassLoader loader, ReferenceQueue<ClassLoader> queue, Key key) {
+            super(loader, queue);
+            this.key = key;
+        }
+
+    }
+
+}
@@ -4,10 +4,37 @@ public class SandboxSecurityException extends RuntimeException {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Script the denial happened in, or null if it wasn't located yet.
+     */
+    private String source;
+    private int lineNumber;
+
     public SandboxSecurityException(String msg) {
         super(msg);
     }
 
+    /**
+     * Points this exception at the position of the script code that was denied, unless it already points somewhere.
+     *
+     * @return this exception
+     */
+    public SandboxSecurityException locate(String source, int lineNumber) {
+        if (this.source == null) {
+            this.source = source;
+            this.lineNumber = lineNumber;
+        }
+        return this;
+    }
+
+    @Override
+    public String getMessage() {
+        if (this.source == null) {
+            return super.getMessage();
+        }
+        return String.format("%s (in script '%s' in line '%d')", super.getMessage(), this.source, this.lineNumber);
+    }
+
     public static SandboxSecurityException format(String msg, String source, int lineNumber) {
         return new SandboxSecurityException(String.format("%s in script '%s' in line '%d'!", msg, source, lineNumber));
     }
@@ -2,6 +2,31 @@ package com.cleanroommc.groovysandbox.interception;
 
 public class CallInterceptor {
 
+    /**
+     * Tells whether {@link #onMethodCall} lets every call of this shape through unchanged, whatever the receiver and argument values are.
+     * <p>
+     * Once every registered interceptor allows a shape, the verdict is remembered and matching calls skip the interceptors entirely,
+     * until the registered interceptors or the bans of {@link InterceptionManager} change. Only return true if the answer can't change in between.
+     *
+     * @param receiverType
+     *      The class of the receiver, {@link org.codehaus.groovy.runtime.NullObject} if it is null.
+     * @param argTypes
+     *      The classes of the arguments, with null elements for null arguments.
+     */
+    public boolean isAlwaysAllowed(Class<?> receiverType, String method, Class<?>... argTypes) {
+        return false;
+    }
+
+    /**
+     * Tells whether {@link #onStaticCall} lets every call of this shape through unchanged, just like {@link #isAlwaysAllowed} does for instance method calls.
+     * <p>
+     * Only asked for static calls resolved at compile-time, which are then made directly while the verdict holds,
+     * see {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}.
+     */
+    public boolean isAlwaysAllowedStatic(Class<?> type, String method, Class<?>... argTypes) {
+        return false;
+    }
+
     /**
      * Intercepts an instance method call on some object of the form "foo.bar(...)"
      */
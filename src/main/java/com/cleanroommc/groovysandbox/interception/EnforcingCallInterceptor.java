@@ -0,0 +1,495 @@
+package com.cleanroommc.groovysandbox.interception;
+
+import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
+import com.cleanroommc.groovysandbox.interception.bubblewrap.CallSiteSelector;
+import groovy.lang.GroovyRuntimeException;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaClassImpl;
+import groovy.lang.MetaMethod;
+import org.codehaus.groovy.reflection.CachedMethod;
+import org.codehaus.groovy.reflection.GeneratedMetaMethod;
+import org.codehaus.groovy.runtime.DefaultGroovyMethods;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.MetaClassHelper;
+import org.codehaus.groovy.runtime.metaclass.ClosureMetaClass;
+import org.codehaus.groovy.runtime.metaclass.ReflectionMetaMethod;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Enforces the bans collected by {@link InterceptionManager} on every kind of call.
+ * <p>
+ * The first time a class is seen, its bans and those of all its supertypes are folded into a {@link Permissions} table,
+ * so that each check afterwards is a flag test, plus a set probe only for the few classes that have members banned.
+ * Which method a call runs is looked up once per shape of call, made of the method name and argument classes, and the verdict on it kept
+ * along with the permissions of the receiver class for as long as its metaclass stays the same.
+ * Method calls are checked against the class of the receiver as well as the class implementing the method that runs,
+ * so that extension methods such as {@code String#execute} are held to the bans of the class they are implemented by.
+ * <p>
+ * The classes of the Groovy runtime that scripts can't do without, such as {@link groovy.lang.GString}, ranges and the extension methods
+ * of the JDK types, stay permitted even though their packages are banned by default.
+ * <p>
+ * The same verdicts are open to the compiler through {@link #isClassPermitted}, {@link #isMethodPermitted} and the like,
+ * so that it rejects no script the enforcer would let run.
+ */
+public class EnforcingCallInterceptor extends CallInterceptor {
+
+    /**
+     * Classes whose methods stay permitted unless banned by name, values of which scripts are handed all the time, such as the closures
+     * {@code @Memoized} methods go through, or that implement the extension methods of the JDK types that are just as safe as the types themselves.
+     */
+    private static final Set<String> RUNTIME_CLASSES = new HashSet<>(Arrays.asList(
+            "groovy.lang.Closure",
+            "groovy.lang.GString",
+            "org.codehaus.groovy.runtime.GStringImpl",
+            "groovy.lang.Range",
+            "groovy.lang.IntRange",
+            "groovy.lang.ObjectRange",
+            "groovy.lang.NumberRange",
+            "groovy.lang.EmptyRange",
+            "org.codehaus.groovy.runtime.memoize.Memoize$MemoizeFunction",
+            "org.codehaus.groovy.runtime.DefaultGroovyMethodsSupport",
+            "org.codehaus.groovy.runtime.DefaultGroovyMethods",
+            "org.codehaus.groovy.runtime.DefaultGroovyStaticMethods",
+            "org.codehaus.groovy.runtime.StringGroovyMethods",
+            "org.codehaus.groovy.runtime.EncodingGroovyMethods",
+            "org.codehaus.groovy.runtime.StreamGroovyMethods"));
+    /**
+     * Methods of runtime classes that stay permitted even though the rest of their class isn't.
+     * The regex operators are routed by the transformer as static calls on {@link org.codehaus.groovy.runtime.ScriptBytecodeAdapter},
+     * the rest are the helpers that code generated by {@code @ToString}, {@code @EqualsAndHashCode} and {@code @Immutable} calls.
+     */
+    private static final Map<String, Set<String>> RUNTIME_METHODS = new HashMap<>();
+    /**
+     * Methods of {@link #RUNTIME_CLASSES} that stay banned, as they dispatch by name past the interceptors.
+     */
+    private static final Map<String, Set<String>> DENIED_RUNTIME_METHODS = new HashMap<>();
+
+    static {
+        RUNTIME_METHODS.put("org.codehaus.groovy.runtime.ScriptBytecodeAdapter", new HashSet<>(Arrays.asList("findRegex", "matchRegex")));
+        RUNTIME_METHODS.put("org.codehaus.groovy.runtime.FormatHelper", Collections.singleton("toString"));
+        RUNTIME_METHODS.put("org.codehaus.groovy.util.HashCodeHelper", new HashSet<>(Arrays.asList("initHash", "updateHash")));
+        RUNTIME_METHODS.put("org.codehaus.groovy.transform.ImmutableASTTransformation", Collections.singleton("checkPropNames"));
+        RUNTIME_METHODS.put("groovy.lang.Script", new HashSet<>(Arrays.asList("print", "println", "printf", "getProperty", "setProperty", "getBinding")));
+        DENIED_RUNTIME_METHODS.put("org.codehaus.groovy.runtime.DefaultGroovyMethods", Collections.singleton("invokeMethod"));
+    }
+
+    /**
+     * Classes implementing the extension methods Groovy generated dispatchers for, by the class of their dispatcher.
+     */
+    private static final ConcurrentMap<Class<?>, Class<?>> GENERATED_METHOD_IMPLEMENTATIONS = new ConcurrentHashMap<>();
+
+    private static final ClassValue<Permissions> PERMISSIONS = new ClassValue<Permissions>() {
+        @Override
+        protected Permissions computeValue(Class<?> type) {
+            return new Permissions(type);
+        }
+    };
+
+    /**
+     * @return false if instantiating the class is denied, which it is for classes that are banned as a whole
+     */
+    public static boolean isClassPermitted(Class<?> type) {
+        return !permissions(type).banned;
+    }
+
+    /**
+     * Judges a class by its name alone, for classes that can't be loaded yet, such as those of scripts being compiled.
+     * Bans on its supertypes are not taken into account.
+     *
+     * @see #isClassPermitted(Class)
+     */
+    public static boolean isClassPermitted(String className) {
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        return !manager.interceptClass(className) || (RUNTIME_CLASSES.contains(className) && !manager.isBannedByName(className));
+    }
+
+    /**
+     * @return false if calling the method through the class is denied, regardless of the class implementing it
+     */
+    public static boolean isMethodPermitted(Class<?> type, String method) {
+        return !permissions(type).isMethodDenied(method);
+    }
+
+    /**
+     * @return false if accessing the property of the class is denied, be it through its field or its getter and setter
+     */
+    public static boolean isPropertyPermitted(Class<?> type, String property) {
+        Permissions permissions = permissions(type);
+        return !permissions.banned && !permissions.deniedProperties.contains(property);
+    }
+
+    /**
+     * @return false if accessing the field of the class directly is denied
+     */
+    public static boolean isFieldPermitted(Class<?> type, String field) {
+        Permissions permissions = permissions(type);
+        return !permissions.banned && !permissions.deniedFields.contains(field);
+    }
+
+    @Override
+    public boolean isAlwaysAllowed(Class<?> receiverType, String method, Class<?>... argTypes) {
+        // Class receivers may be calling static methods of the class they hold, which the type alone doesn't tell
+        if (receiverType == Class.class || permissions(receiverType).isMethodDenied(method)) {
+            return false;
+        }
+        return isImplementationAllowed(receiverType, InvokerHelper.getMetaClass(receiverType), method, argTypes, false);
+    }
+
+    @Override
+    public boolean isAlwaysAllowedStatic(Class<?> type, String method, Class<?>... argTypes) {
+        if (permissions(type).isMethodDenied(method)) {
+            return false;
+        }
+        return isImplementationAllowed(type, InvokerHelper.getMetaClass(type), method, argTypes, true);
+    }
+
+    @Override
+    public Object onMethodCall(Invoker invoker, Object receiver, String method, Object... args) throws Throwable {
+        if (receiver instanceof Class) {
+            // Static methods can be called through Class receivers, see onStaticCall
+            checkMethod((Class<?>) receiver, method);
+            checkImplementation((Class<?>) receiver, InvokerHelper.getMetaClass((Class<?>) receiver), method, args, true);
+        }
+        if (receiver != null) {
+            checkMethod(receiver.getClass(), method);
+            checkImplementation(receiver.getClass(), InvokerHelper.getMetaClass(receiver), method, args, false);
+        }
+        return super.onMethodCall(invoker, receiver, method, args);
+    }
+
+    @Override
+    public Object onStaticCall(Invoker invoker, Class<?> receiver, String method, Object... args) throws Throwable {
+        checkMethod(receiver, method);
+        checkImplementation(receiver, InvokerHelper.getMetaClass(receiver), method, args, true);
+        return super.onStaticCall(invoker, receiver, method, args);
+    }
+
+    @Override
+    public Object onNewInstance(Invoker invoker, Class<?> receiver, Object... args) throws Throwable {
+        if (permissions(receiver).banned) {
+            throw SandboxSecurityException.format("Instantiating " + receiver.getName());
+        }
+        return super.onNewInstance(invoker, receiver, args);
+    }
+
+    @Override
+    public Object onSuperCall(Invoker invoker, Class<?> senderType, Object receiver, String method, Object... args) throws Throwable {
+        Class<?> superType = senderType.getSuperclass();
+        if (superType != null) {
+            checkMethod(superType, method);
+        }
+        return super.onSuperCall(invoker, senderType, receiver, method, args);
+    }
+
+    @Override
+    public Object onGetProperty(Invoker invoker, Object receiver, String property) throws Throwable {
+        checkProperty(receiver, property);
+        return super.onGetProperty(invoker, receiver, property);
+    }
+
+    @Override
+    public Object onSetProperty(Invoker invoker, Object receiver, String property, Object value) throws Throwable {
+        checkProperty(receiver, property);
+        return super.onSetProperty(invoker, receiver, property, value);
+    }
+
+    @Override
+    public Object onGetAttribute(Invoker invoker, Object receiver, String attribute) throws Throwable {
+        checkField(receiver, attribute);
+        return super.onGetAttribute(invoker, receiver, attribute);
+    }
+
+    @Override
+    public Object onSetAttribute(Invoker invoker, Object receiver, String attribute, Object value) throws Throwable {
+        checkField(receiver, attribute);
+        return super.onSetAttribute(invoker, receiver, attribute, value);
+    }
+
+    @Override
+    public Object onGetArray(Invoker invoker, Object receiver, Object index) throws Throwable {
+        checkArray(receiver);
+        return super.onGetArray(invoker, receiver, index);
+    }
+
+    @Override
+    public Object onSetArray(Invoker invoker, Object receiver, Object index, Object value) throws Throwable {
+        checkArray(receiver);
+        return super.onSetArray(invoker, receiver, index, value);
+    }
+
+    private void checkMethod(Class<?> type, String method) {
+        if (permissions(type).isMethodDenied(method)) {
+            throw SandboxSecurityException.format("Calling " + type.getName() + "#" + method);
+        }
+    }
+
+    private void checkImplementation(Class<?> type, MetaClass metaClass, String method, Object[] args, boolean isStatic) {
+        Class<?>[] argTypes = MetaClassHelper.convertToTypeArray(args);
+        if (!isImplementationAllowed(type, metaClass, method, argTypes, isStatic)) {
+            throw SandboxSecurityException.format("Calling " + implementationOf(metaMethod(metaClass, method, argTypes, isStatic)).getName() + "#" + method);
+        }
+    }
+
+    /**
+     * Looks the method up only the first time calls of this shape are made on the class, for as long as it keeps the same metaclass.
+     *
+     * @param type the class the metaclass is of
+     */
+    private static boolean isImplementationAllowed(Class<?> type, MetaClass metaClass, String method, Class<?>[] argTypes, boolean isStatic) {
+        Map<CallShape, Boolean> verdicts = permissions(type).implementationVerdicts(metaClass);
+        if (verdicts == null || !CallSiteSelector.isCacheable(type, argTypes)) {
+            return isImplementationAllowed(metaMethod(metaClass, method, argTypes, isStatic), method);
+        }
+        CallShape shape = new CallShape(method, argTypes, isStatic);
+        Boolean allowed = verdicts.get(shape);
+        if (allowed == null) {
+            allowed = isImplementationAllowed(metaMethod(metaClass, method, argTypes, isStatic), method);
+            verdicts.put(shape, allowed);
+        }
+        return allowed;
+    }
+
+    /**
+     * @param metaMethod the method that runs, or null if the metaclass dispatches it otherwise, such as through {@code invokeMethod}
+     */
+    private static boolean isImplementationAllowed(MetaMethod metaMethod, String method) {
+        return metaMethod == null || !permissions(implementationOf(metaMethod)).isMethodDenied(method);
+    }
+
+    /**
+     * @param argTypes the classes of the arguments, with null elements for null arguments
+     * @return the method the metaclass picks for the call, or null if there is none or it can't tell which
+     */
+    private static MetaMethod metaMethod(MetaClass metaClass, String method, Class<?>[] argTypes, boolean isStatic) {
+        try {
+            // Classes given in place of arguments are taken as their types
+            return isStatic ? metaClass.getStaticMetaMethod(method, argTypes) : metaClass.getMetaMethod(method, argTypes);
+        } catch (GroovyRuntimeException e) {
+            // Ambiguous, the call fails all the same
+            return null;
+        }
+    }
+
+    /**
+     * @return the class the code of the method is in, which for extension methods isn't the class they extend
+     */
+    private static Class<?> implementationOf(MetaMethod metaMethod) {
+        if (metaMethod instanceof CachedMethod) {
+            return ((CachedMethod) metaMethod).getCachedMethod().getDeclaringClass();
+        }
+        if (metaMethod instanceof ReflectionMetaMethod) {
+            // Extension methods of modules, their declaring class is the class they extend
+            return implementationOf(((ReflectionMetaMethod) metaMethod).getCachedMethod());
+        }
+        if (metaMethod instanceof GeneratedMetaMethod.Proxy) {
+            return implementationOf(((GeneratedMetaMethod.Proxy) metaMethod).proxy());
+        }
+        if (metaMethod instanceof GeneratedMetaMethod) {
+            return GENERATED_METHOD_IMPLEMENTATIONS.computeIfAbsent(metaMethod.getClass(), type -> generatedMethodImplementation(metaMethod));
+        }
+        return metaMethod.getDeclaringClass().getTheClass();
+    }
+
+    /**
+     * Generated dispatchers call a static method of one of Groovy's extension classes, taking the extended object first.
+     */
+    private static Class<?> generatedMethodImplementation(MetaMethod metaMethod) {
+        Class<?>[] parameterTypes = metaMethod.getNativeParameterTypes();
+        Class<?>[] signature = new Class<?>[parameterTypes.length + 1];
+        signature[0] = metaMethod.getDeclaringClass().getTheClass();
+        System.arraycopy(parameterTypes, 0, signature, 1, parameterTypes.length);
+        for (Class<?> type : DefaultGroovyMethods.DGM_LIKE_CLASSES) {
+            try {
+                return type.getMethod(metaMethod.getName(), signature).getDeclaringClass();
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        // Held to the bans of the package of the dispatcher then
+        return metaMethod.getClass();
+    }
+
+    private void checkProperty(Object receiver, String property) {
+        if (receiver instanceof Class) {
+            checkProperty((Class<?>) receiver, property);
+        }
+        if (receiver != null) {
+            checkProperty(receiver.getClass(), property);
+        }
+    }
+
+    private void checkProperty(Class<?> type, String property) {
+        if (!isPropertyPermitted(type, property)) {
+            throw SandboxSecurityException.format("Accessing " + type.getName() + "#" + property);
+        }
+    }
+
+    private void checkField(Object receiver, String field) {
+        if (receiver instanceof Class) {
+            checkField((Class<?>) receiver, field);
+        }
+        if (receiver != null) {
+            checkField(receiver.getClass(), field);
+        }
+    }
+
+    private void checkField(Class<?> type, String field) {
+        if (!isFieldPermitted(type, field)) {
+            throw SandboxSecurityException.format("Accessing " + type.getName() + "#" + field);
+        }
+    }
+
+    private void checkArray(Object receiver) {
+        if (receiver != null && permissions(receiver.getClass()).banned) {
+            throw SandboxSecurityException.format("Indexing " + receiver.getClass().getName());
+        }
+    }
+
+    private static Permissions permissions(Class<?> type) {
+        Permissions permissions = PERMISSIONS.get(type);
+        if (permissions.version != InterceptionManager.INSTANCE.getBanVersion()) {
+            PERMISSIONS.remove(type);
+            permissions = PERMISSIONS.get(type);
+        }
+        return permissions;
+    }
+
+    private static class Permissions {
+
+        private final int version;
+        /**
+         * Whether the class is banned, by its package unless it is a runtime class, or by its name or that of any of its supertypes.
+         */
+        private final boolean banned;
+        /**
+         * Methods that stay permitted even though the class is banned by its package.
+         */
+        private final Set<String> allowedMethods;
+        private final Set<String> deniedMethods;
+        private final Set<String> deniedFields;
+        /**
+         * Denied fields, plus the property names of denied getters and setters.
+         */
+        private final Set<String> deniedProperties;
+        /**
+         * Verdicts on the methods that calls of each shape run, as picked by the metaclass they were given under.
+         */
+        private volatile ImplementationVerdicts implementationVerdicts;
+
+        private Permissions(Class<?> type) {
+            InterceptionManager manager = InterceptionManager.INSTANCE;
+            this.version = manager.getBanVersion();
+            boolean bannedByName = false;
+            Set<String> deniedMethods = new HashSet<>(DENIED_RUNTIME_METHODS.getOrDefault(type.getName(), Collections.emptySet()));
+            Set<String> deniedFields = new HashSet<>();
+            // Members banned on a supertype stay banned when reached through a subclass
+            Set<Class<?>> visited = new HashSet<>();
+            Deque<Class<?>> queue = new ArrayDeque<>();
+            queue.add(type);
+            while (!queue.isEmpty()) {
+                Class<?> current = queue.poll();
+                if (!visited.add(current)) {
+                    continue;
+                }
+                // Banning a class bans its subclasses too, such as the loaders of the JDK along with ClassLoader
+                bannedByName |= manager.isBannedByName(current);
+                deniedMethods.addAll(manager.getBannedMethods(current));
+                deniedFields.addAll(manager.getBannedFields(current));
+                if (current.getSuperclass() != null) {
+                    queue.add(current.getSuperclass());
+                }
+                Collections.addAll(queue, current.getInterfaces());
+            }
+            this.banned = bannedByName || (manager.interceptClass(type) && !RUNTIME_CLASSES.contains(type.getName()));
+            this.allowedMethods = bannedByName ? Collections.emptySet() : RUNTIME_METHODS.getOrDefault(type.getName(), Collections.emptySet());
+            Set<String> deniedProperties = new HashSet<>(deniedFields);
+            for (String method : deniedMethods) {
+                if (method.length() > 3 && (method.startsWith("get") || method.startsWith("set"))) {
+                    deniedProperties.add(uncapitalize(method.substring(3)));
+                } else if (method.length() > 2 && method.startsWith("is")) {
+                    deniedProperties.add(uncapitalize(method.substring(2)));
+                }
+            }
+            this.deniedMethods = freeze(deniedMethods);
+            this.deniedFields = freeze(deniedFields);
+            this.deniedProperties = freeze(deniedProperties);
+        }
+
+        private boolean isMethodDenied(String method) {
+            return (this.banned && !this.allowedMethods.contains(method)) || this.deniedMethods.contains(method);
+        }
+
+        /**
+         * @return the verdicts that hold under the metaclass, or null if it may pick other methods later without being replaced,
+         * as {@link groovy.lang.ExpandoMetaClass} does
+         */
+        private Map<CallShape, Boolean> implementationVerdicts(MetaClass metaClass) {
+            if (metaClass.getClass() != MetaClassImpl.class && metaClass.getClass() != ClosureMetaClass.class) {
+                return null;
+            }
+            ImplementationVerdicts verdicts = this.implementationVerdicts;
+            if (verdicts == null || verdicts.metaClass != metaClass) {
+                verdicts = new ImplementationVerdicts(metaClass);
+                this.implementationVerdicts = verdicts;
+            }
+            return verdicts.verdicts;
+        }
+
+        private static String uncapitalize(String name) {
+            // Properties like "URL" keep their case, as with JavaBeans decapitalization
+            if (name.length() > 1 && Character.isUpperCase(name.charAt(1))) {
+                return name;
+            }
+            return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        }
+
+        private static Set<String> freeze(Set<String> set) {
+            return set.isEmpty() ? Collections.emptySet() : set;
+        }
+
+    }
+
+    private static class ImplementationVerdicts {
+
+        private final MetaClass metaClass;
+        private final ConcurrentMap<CallShape, Boolean> verdicts = new ConcurrentHashMap<>();
+
+        private ImplementationVerdicts(MetaClass metaClass) {
+            this.metaClass = metaClass;
+        }
+
+    }
+
+    private static class CallShape {
+
+        private final String method;
+        private final Class<?>[] argTypes;
+        private final boolean isStatic;
+        private final int hashCode;
+
+        private CallShape(String method, Class<?>[] argTypes, boolean isStatic) {
+            this.method = method;
+            this.argTypes = argTypes;
+            this.isStatic = isStatic;
+            this.hashCode = 31 * (31 * method.hashCode() + Arrays.hashCode(argTypes)) + Boolean.hashCode(isStatic);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CallShape)) {
+                return false;
+            }
+            CallShape other = (CallShape) obj;
+            return this.isStatic == other.isStatic && this.method.equals(other.method) && Arrays.equals(this.argTypes, other.argTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.cleanroommc.groovysandbox.interception;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the links of interceptor chains as classes of their own, one for each kind and interceptor class.
+ * <p>
+ * A shared {@link InterceptChain} calls every interceptor from the same call sites, which the JIT sees as megamorphic once a few interceptors are registered.
+ * Each generated link instead calls the hook of its interceptor through {@code invokevirtual} on the concrete interceptor class, and the link after it
+ * from a call site of its own, which only ever sees one class as long as the interceptor class always comes before the same one,
+ * so that small policy checks can be inlined all the way down to the terminal.
+ */
+final class FusedDispatcher {
+
+    private static final String INVOKER = Type.getInternalName(Invoker.class);
+    private static final String CALL_INTERCEPTOR = Type.getInternalName(CallInterceptor.class);
+    private static final String CALL_DESCRIPTOR = Type.getMethodDescriptor(Type.getType(Object.class), Type.getType(Object.class), Type.getType(String.class), Type.getType(Object[].class));
+    private static final String CONSTRUCTOR_DESCRIPTOR = Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(CallInterceptor.class), Type.getType(Invoker.class));
+    private static final String SUPER = Type.getInternalName(Super.class);
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * Constructors of the generated links by interceptor class and kind.
+     */
+    private static final ClassValue<ConcurrentMap<InterceptionKind, Constructor<? extends Invoker>>> LINKS = new ClassValue<ConcurrentMap<InterceptionKind, Constructor<? extends Invoker>>>() {
+        @Override
+        protected ConcurrentMap<InterceptionKind, Constructor<? extends Invoker>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final ClassValue<LinkClassLoader> CLASS_LOADERS = new ClassValue<LinkClassLoader>() {
+        @Override
+        protected LinkClassLoader computeValue(Class<?> type) {
+            return new LinkClassLoader(type.getClassLoader());
+        }
+    };
+
+    /**
+     * Builds the chain of the interceptors that handle the kind, in order, ending in the terminal.
+     */
+    static Invoker of(InterceptionKind kind, List<CallInterceptor> callInterceptors, Invoker terminal) throws ReflectiveOperationException {
+        Invoker chain = terminal;
+        for (int i = callInterceptors.size() - 1; i >= 0; i--) {
+            CallInterceptor callInterceptor = callInterceptors.get(i);
+            if (kind.isHandledBy(callInterceptor)) {
+                chain = link(kind, callInterceptor.getClass()).newInstance(callInterceptor, chain);
+            }
+        }
+        return chain;
+    }
+
+    private static Constructor<? extends Invoker> link(InterceptionKind kind, Class<?> interceptorType) throws ReflectiveOperationException {
+        ConcurrentMap<InterceptionKind, Constructor<? extends Invoker>> links = LINKS.get(interceptorType);
+        Constructor<? extends Invoker> link = links.get(kind);
+        if (link == null) {
+            link = generate(kind, interceptorType);
+            Constructor<? extends Invoker> existing = links.putIfAbsent(kind, link);
+            if (existing != null) {
+                link = existing;
+            }
+        }
+        return link;
+    }
+
+    private static Constructor<? extends Invoker> generate(InterceptionKind kind, Class<?> interceptorType) throws ReflectiveOperationException {
+        // Interceptors that can't be referred to from outside their package are called through CallInterceptor, the call site stays just as monomorphic
+        String owner = Modifier.isPublic(interceptorType.getModifiers()) ? Type.getInternalName(interceptorType) : CALL_INTERCEPTOR;
+        String name = "com/cleanroommc/groovysandbox/interception/FusedDispatcher$" + kind.name() + "$" + COUNTER.incrementAndGet();
+        Method hook = kind.hookMethod();
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, name, null, "java/lang/Object", new String[] { INVOKER });
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "interceptor", "L" + owner + ";", null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "next", "L" + INVOKER + ";", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "interceptor", "L" + owner + ";");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "next", "L" + INVOKER + ";");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // Object call(Object receiver, String method, Object[] args), which calls the hook just like InterceptionKind#hook does
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_VARARGS, "call", CALL_DESCRIPTOR, null, new String[] { "java/lang/Throwable" });
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "interceptor", "L" + owner + ";");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "next", "L" + INVOKER + ";");
+        switch (kind) {
+            case METHOD_CALL:
+                loadReceiver(mv, null);
+                loadMethod(mv);
+                loadArgs(mv);
+                break;
+            case STATIC_CALL:
+                loadReceiver(mv, "java/lang/Class");
+                loadMethod(mv);
+                loadArgs(mv);
+                break;
+            case NEW_INSTANCE:
+            case SUPER_CONSTRUCTOR:
+                loadReceiver(mv, "java/lang/Class");
+                loadArgs(mv);
+                break;
+            case SUPER_CALL:
+                loadReceiver(mv, SUPER);
+                mv.visitFieldInsn(Opcodes.GETFIELD, SUPER, "senderType", "Ljava/lang/Class;");
+                loadReceiver(mv, SUPER);
+                mv.visitFieldInsn(Opcodes.GETFIELD, SUPER, "receiver", "Ljava/lang/Object;");
+                loadMethod(mv);
+                loadArgs(mv);
+                break;
+            case GET_PROPERTY:
+            case GET_ATTRIBUTE:
+                loadReceiver(mv, null);
+                loadMethod(mv);
+                break;
+            case SET_PROPERTY:
+            case SET_ATTRIBUTE:
+                loadReceiver(mv, null);
+                loadMethod(mv);
+                loadArg(mv, 0);
+                break;
+            case GET_ARRAY:
+                loadReceiver(mv, null);
+                loadArg(mv, 0);
+                break;
+            case SET_ARRAY:
+                loadReceiver(mv, null);
+                loadArg(mv, 0);
+                loadArg(mv, 1);
+                break;
+            default:
+                throw new AssertionError(kind);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, hook.getName(), Type.getMethodDescriptor(hook), false);
+        if (hook.getReturnType() == void.class) {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        }
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        Class<?> linkClass = CLASS_LOADERS.get(interceptorType).define(name.replace('/', '.'), cw.toByteArray());
+        return linkClass.asSubclass(Invoker.class).getConstructor(CallInterceptor.class, Invoker.class);
+    }
+
+    private static void loadReceiver(MethodVisitor mv, String type) {
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        if (type != null) {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, type);
+        }
+    }
+
+    private static void loadMethod(MethodVisitor mv) {
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+    }
+
+    private static void loadArgs(MethodVisitor mv) {
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+    }
+
+    private static void loadArg(MethodVisitor mv, int index) {
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitLdcInsn(index);
+        mv.visitInsn(Opcodes.AALOAD);
+    }
+
+    private FusedDispatcher() { }
+
+    /**
+     * Defines links next to the interceptor classes they call, so that those can be resolved.
+     */
+    private static class LinkClassLoader extends ClassLoader {
+
+        private LinkClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -2,23 +2,101 @@ package com.cleanroommc.groovysandbox.interception;
 
 import java.util.List;
 
-public abstract class InterceptChain implements Invoker {
+/**
+ * One link of an immutable chain of {@link CallInterceptor}s for one kind of interception.
+ * <p>
+ * Each link hands the link after it to its interceptor as the {@link Invoker}, and the last link runs the terminal {@link Invoker} that performs the actual operation.
+ * Chains hold no per-call state, so they are built once per change of the interceptors and shared between calls, see {@link InterceptionPoint}.
+ */
+public final class InterceptChain implements Invoker {
 
-    private final List<CallInterceptor> callInterceptors;
-    private final int size;
+    /**
+     * Calls the {@link CallInterceptor} hook for a kind of interception.
+     */
+    @FunctionalInterface
+    public interface Hook {
 
-    private int index = 0;
+        Object intercept(CallInterceptor callInterceptor, Invoker next, Object receiver, String method, Object[] args) throws Throwable;
 
-    public InterceptChain() {
-        this.callInterceptors = InterceptionManager.INSTANCE.getCallInterceptors();
-        this.size = this.callInterceptors.size();
     }
 
-    public CallInterceptor next() {
-        if (this.index < this.size) {
-            return this.callInterceptors.get(this.index++);
+    /**
+     * Builds the chain of the registered {@link CallInterceptor}s that handle any of the kinds, in order, ending in the terminal.
+     *
+     * @param kinds bitmask of the {@link InterceptionKind}s whose hooks the hook calls
+     */
+    public static InterceptChain of(int kinds, Hook hook, Invoker terminal) {
+        List<CallInterceptor> callInterceptors = InterceptionManager.INSTANCE.getCallInterceptors();
+        InterceptChain chain = new InterceptChain(hook, terminal, null, null);
+        for (int i = callInterceptors.size() - 1; i >= 0; i--) {
+            CallInterceptor callInterceptor = callInterceptors.get(i);
+            if ((InterceptionKind.handledBy(callInterceptor) & kinds) != 0) {
+                chain = new InterceptChain(hook, terminal, callInterceptor, chain);
+            }
         }
-        return null;
+        return chain;
+    }
+
+    private final Hook hook;
+    private final Invoker terminal;
+    private final CallInterceptor callInterceptor;
+    private final InterceptChain next;
+
+    private InterceptChain(Hook hook, Invoker terminal, CallInterceptor callInterceptor, InterceptChain next) {
+        this.hook = hook;
+        this.terminal = terminal;
+        this.callInterceptor = callInterceptor;
+        this.next = next;
+    }
+
+    @Override
+    public Object call(Object receiver, String method, Object... args) throws Throwable {
+        if (this.callInterceptor == null) {
+            return this.terminal.call(receiver, method, args);
+        }
+        return this.hook.intercept(this.callInterceptor, this.next, receiver, method, args);
+    }
+
+    // Hooks take the arguments as an array, which only has to be made if the chain has an interceptor left
+
+    @Override
+    public Object call(Object receiver, String method) throws Throwable {
+        if (this.callInterceptor == null) {
+            return this.terminal.call(receiver, method);
+        }
+        return call(receiver, method, new Object[0]);
+    }
+
+    @Override
+    public Object call(Object receiver, String method, Object arg1) throws Throwable {
+        if (this.callInterceptor == null) {
+            return this.terminal.call(receiver, method, arg1);
+        }
+        return call(receiver, method, new Object[] { arg1 });
+    }
+
+    @Override
+    public Object call(Object receiver, String method, Object arg1, Object arg2) throws Throwable {
+        if (this.callInterceptor == null) {
+            return this.terminal.call(receiver, method, arg1, arg2);
+        }
+        return call(receiver, method, new Object[] { arg1, arg2 });
+    }
+
+    @Override
+    public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3) throws Throwable {
+        if (this.callInterceptor == null) {
+            return this.terminal.call(receiver, method, arg1, arg2, arg3);
+        }
+        return call(receiver, method, new Object[] { arg1, arg2, arg3 });
+    }
+
+    @Override
+    public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4) throws Throwable {
+        if (this.callInterceptor == null) {
+            return this.terminal.call(receiver, method, arg1, arg2, arg3, arg4);
+        }
+        return call(receiver, method, new Object[] { arg1, arg2, arg3, arg4 });
     }
 
 }
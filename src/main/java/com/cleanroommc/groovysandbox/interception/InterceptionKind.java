@@ -0,0 +1,125 @@
+package com.cleanroommc.groovysandbox.interception;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * The kinds of interception, one for each hook of {@link CallInterceptor}.
+ * <p>
+ * An interceptor that doesn't override a hook just forwards to the next one, so it is left out of the chains of that kind altogether.
+ */
+public enum InterceptionKind {
+
+    METHOD_CALL(null, (callInterceptor, next, receiver, method, args) -> callInterceptor.onMethodCall(next, receiver, method, args),
+            "onMethodCall", Invoker.class, Object.class, String.class, Object[].class),
+    STATIC_CALL(null, (callInterceptor, next, receiver, method, args) -> callInterceptor.onStaticCall(next, (Class<?>) receiver, method, args),
+            "onStaticCall", Invoker.class, Class.class, String.class, Object[].class),
+    NEW_INSTANCE(null, (callInterceptor, next, receiver, method, args) -> callInterceptor.onNewInstance(next, (Class<?>) receiver, args),
+            "onNewInstance", Invoker.class, Class.class, Object[].class),
+    // The receiver is a Super holding both the sender type and the actual receiver
+    SUPER_CALL(null, (callInterceptor, next, receiver, method, args) -> callInterceptor.onSuperCall(next, ((Super) receiver).senderType, ((Super) receiver).receiver, method, args),
+            "onSuperCall", Invoker.class, Class.class, Object.class, String.class, Object[].class),
+    SUPER_CONSTRUCTOR(NEW_INSTANCE, (callInterceptor, next, receiver, method, args) -> {
+        callInterceptor.onSuperConstructor(next, (Class<?>) receiver, args);
+        return null;
+    }, "onSuperConstructor", Invoker.class, Class.class, Object[].class),
+    GET_PROPERTY(null, (callInterceptor, next, receiver, property, args) -> callInterceptor.onGetProperty(next, receiver, property),
+            "onGetProperty", Invoker.class, Object.class, String.class),
+    // The value being set is the only argument
+    SET_PROPERTY(null, (callInterceptor, next, receiver, property, value) -> callInterceptor.onSetProperty(next, receiver, property, value[0]),
+            "onSetProperty", Invoker.class, Object.class, String.class, Object.class),
+    GET_ATTRIBUTE(null, (callInterceptor, next, receiver, attribute, args) -> callInterceptor.onGetAttribute(next, receiver, attribute),
+            "onGetAttribute", Invoker.class, Object.class, String.class),
+    SET_ATTRIBUTE(null, (callInterceptor, next, receiver, attribute, value) -> callInterceptor.onSetAttribute(next, receiver, attribute, value[0]),
+            "onSetAttribute", Invoker.class, Object.class, String.class, Object.class),
+    // The index, then the value being set, are the arguments
+    GET_ARRAY(null, (callInterceptor, next, receiver, method, args) -> callInterceptor.onGetArray(next, receiver, args[0]),
+            "onGetArray", Invoker.class, Object.class, Object.class),
+    SET_ARRAY(null, (callInterceptor, next, receiver, method, args) -> callInterceptor.onSetArray(next, receiver, args[0], args[1]),
+            "onSetArray", Invoker.class, Object.class, Object.class, Object.class);
+
+    private static final InterceptionKind[] VALUES = values();
+
+    /**
+     * Bitmask of {@link #bit}s of the kinds handled by each interceptor class.
+     */
+    private static final ClassValue<Integer> HANDLED_KINDS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            int mask = 0;
+            for (InterceptionKind kind : VALUES) {
+                if (kind.isOverriddenBy(type)) {
+                    mask |= kind.bit;
+                }
+            }
+            for (InterceptionKind kind : VALUES) {
+                if (kind.fallback != null && (mask & kind.fallback.bit) != 0) {
+                    mask |= kind.bit;
+                }
+            }
+            return mask;
+        }
+    };
+
+    /**
+     * @return bitmask of the kinds handled by the interceptor
+     */
+    public static int handledBy(CallInterceptor callInterceptor) {
+        return HANDLED_KINDS.get(callInterceptor.getClass());
+    }
+
+    public static int mask(Set<InterceptionKind> kinds) {
+        int mask = 0;
+        for (InterceptionKind kind : kinds) {
+            mask |= kind.bit;
+        }
+        return mask;
+    }
+
+    final int bit = 1 << ordinal();
+    /**
+     * The kind whose hook the default implementation of this hook calls, if any.
+     */
+    private final InterceptionKind fallback;
+    private final InterceptChain.Hook hook;
+    private final String hookName;
+    private final Class<?>[] hookParameterTypes;
+
+    InterceptionKind(InterceptionKind fallback, InterceptChain.Hook hook, String hookName, Class<?>... hookParameterTypes) {
+        this.fallback = fallback;
+        this.hook = hook;
+        this.hookName = hookName;
+        this.hookParameterTypes = hookParameterTypes;
+    }
+
+    /**
+     * @return the hook calling {@link CallInterceptor} the usual way for this kind, see {@link InterceptionPoint#InterceptionPoint(InterceptionKind, Invoker)}
+     */
+    public InterceptChain.Hook hook() {
+        return hook;
+    }
+
+    /**
+     * @return the {@link CallInterceptor} method of this kind
+     */
+    Method hookMethod() {
+        try {
+            return CallInterceptor.class.getMethod(this.hookName, this.hookParameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public boolean isHandledBy(CallInterceptor callInterceptor) {
+        return (handledBy(callInterceptor) & this.bit) != 0;
+    }
+
+    private boolean isOverriddenBy(Class<?> type) {
+        try {
+            return type.getMethod(this.hookName, this.hookParameterTypes).getDeclaringClass() != CallInterceptor.class;
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.cleanroommc.groovysandbox.interception;
 
+import com.cleanroommc.groovysandbox.util.PrefixTrie;
+
 import java.util.*;
 
 public enum InterceptionManager {
@@ -12,6 +14,29 @@ public enum InterceptionManager {
     private final Set<String> bannedClasses = new HashSet<>();
     private final Map<String, Set<String>> bannedMethods = new HashMap<>();
     private final Map<String, Set<String>> bannedFields = new HashMap<>();
+    private final PrefixTrie bannedPackageTrie = new PrefixTrie();
+    /**
+     * Bans as they apply to each class, recomputed when {@link #banVersion} moves on.
+     */
+    private final ClassValue<ClassBans> classBans = new ClassValue<ClassBans>() {
+        @Override
+        protected ClassBans computeValue(Class<?> type) {
+            return new ClassBans(type);
+        }
+    };
+
+    /**
+     * Bumped whenever {@link #callInterceptors} changes, so that cached {@link InterceptChain}s can be rebuilt.
+     */
+    private volatile int version = 0;
+    /**
+     * Bumped whenever any of the bans change, so that {@link #classBans} can be recomputed.
+     */
+    private volatile int banVersion = 0;
+    /**
+     * Whether every registered interceptor of method calls may give a cacheable verdict, see {@link CallInterceptor#isAlwaysAllowed}.
+     */
+    private volatile boolean cacheableVerdicts = false;
 
     public void initDefaultBans() {
         banPackage("java.io");
@@ -34,48 +59,191 @@ public enum InterceptionManager {
     }
 
     public void addCallInterceptor(CallInterceptor callInterceptor) {
+        // Works out the hooks it overrides up front, rather than when the chains are next built
+        InterceptionKind.handledBy(callInterceptor);
         this.callInterceptors.add(callInterceptor);
+        this.cacheableVerdicts = this.callInterceptors.stream()
+                .allMatch(interceptor -> !InterceptionKind.METHOD_CALL.isHandledBy(interceptor) || overridesIsAlwaysAllowed(interceptor));
+        this.version++;
     }
 
     public void banPackage(String packageName) {
         this.bannedPackages.add(packageName);
+        this.bannedPackageTrie.add(packageName);
+        this.banVersion++;
     }
 
     public void banClass(Class<?> clazz) {
         this.bannedClasses.add(clazz.getName());
+        this.banVersion++;
     }
 
     public void banMethod(Class<?> clazz, String method) {
         this.bannedMethods.computeIfAbsent(clazz.getName(), key -> new HashSet<>()).add(method);
+        this.banVersion++;
     }
 
     public void banField(Class<?> clazz, String field) {
         this.bannedFields.computeIfAbsent(clazz.getName(), key -> new HashSet<>()).add(field);
+        this.banVersion++;
     }
 
     public List<CallInterceptor> getCallInterceptors() {
         return unmodifiableCallInterceptors;
     }
 
-    public boolean interceptClass(Class<?> clazz) {
-        String packageName = clazz.getPackage().getName();
-        List<String> bannedPackages = this.bannedPackages;
-        for (int i = 0; i < bannedPackages.size(); i++) {
-            if (packageName.startsWith(bannedPackages.get(i))) {
-                return true;
+    public int getVersion() {
+        return version;
+    }
+
+    public int getBanVersion() {
+        return banVersion;
+    }
+
+    /**
+     * @return a description of every ban, the same for the same bans however they were made, so that compiled scripts can be told apart
+     * by the bans they were compiled under across runs
+     */
+    public String getBanFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        new TreeSet<>(this.bannedPackages).forEach(packageName -> fingerprint.append("package ").append(packageName).append('\n'));
+        new TreeSet<>(this.bannedClasses).forEach(className -> fingerprint.append("class ").append(className).append('\n'));
+        new TreeMap<>(this.bannedMethods).forEach((className, methods) -> new TreeSet<>(methods)
+                .forEach(method -> fingerprint.append("method ").append(className).append('#').append(method).append('\n')));
+        new TreeMap<>(this.bannedFields).forEach((className, fields) -> new TreeSet<>(fields)
+                .forEach(field -> fingerprint.append("field ").append(className).append('#').append(field).append('\n')));
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return false if any registered interceptor of method calls never allows them ahead of time, in which case {@link #isAlwaysAllowed} need not be asked
+     */
+    public boolean hasCacheableVerdicts() {
+        return cacheableVerdicts;
+    }
+
+    /**
+     * @return true if every registered interceptor of method calls always allows method calls of this shape
+     * @see CallInterceptor#isAlwaysAllowed
+     */
+    public boolean isAlwaysAllowed(Class<?> receiverType, String method, Class<?>[] argTypes) {
+        List<CallInterceptor> callInterceptors = this.callInterceptors;
+        for (int i = 0; i < callInterceptors.size(); i++) {
+            CallInterceptor callInterceptor = callInterceptors.get(i);
+            if (InterceptionKind.METHOD_CALL.isHandledBy(callInterceptor) && !callInterceptor.isAlwaysAllowed(receiverType, method, argTypes)) {
+                return false;
             }
         }
-        return this.bannedClasses.contains(clazz.getName());
+        return true;
     }
 
-    public boolean interceptClass(String clazz) {
-        List<String> bannedPackages = this.bannedPackages;
-        for (int i = 0; i < bannedPackages.size(); i++) {
-            if (clazz.startsWith(bannedPackages.get(i))) {
-                return true;
+    /**
+     * @return true if every registered interceptor of static method calls always allows static method calls of this shape
+     * @see CallInterceptor#isAlwaysAllowedStatic
+     */
+    public boolean isAlwaysAllowedStatic(Class<?> type, String method, Class<?>[] argTypes) {
+        List<CallInterceptor> callInterceptors = this.callInterceptors;
+        for (int i = 0; i < callInterceptors.size(); i++) {
+            CallInterceptor callInterceptor = callInterceptors.get(i);
+            if (InterceptionKind.STATIC_CALL.isHandledBy(callInterceptor) && !callInterceptor.isAlwaysAllowedStatic(type, method, argTypes)) {
+                return false;
             }
         }
-        return this.bannedClasses.contains(clazz);
+        return true;
+    }
+
+    public boolean interceptClass(Class<?> clazz) {
+        return classBans(clazz).banned;
+    }
+
+    public boolean interceptClass(String clazz) {
+        return this.bannedPackageTrie.matches(clazz) || this.bannedClasses.contains(clazz);
+    }
+
+    public boolean interceptMethod(Class<?> clazz, String method) {
+        ClassBans bans = classBans(clazz);
+        return bans.banned || bans.methods.contains(method);
+    }
+
+    public boolean interceptField(Class<?> clazz, String field) {
+        ClassBans bans = classBans(clazz);
+        return bans.banned || bans.fields.contains(field);
+    }
+
+    /**
+     * @return true if exactly this class was banned through {@link #banClass}, rather than through its package
+     */
+    boolean isBannedByName(Class<?> clazz) {
+        return classBans(clazz).bannedByName;
+    }
+
+    /**
+     * @see #isBannedByName(Class)
+     */
+    boolean isBannedByName(String className) {
+        return this.bannedClasses.contains(className);
+    }
+
+    /**
+     * @return names of the methods banned on exactly this class, not including its supertypes
+     */
+    Set<String> getBannedMethods(Class<?> clazz) {
+        return classBans(clazz).methods;
+    }
+
+    /**
+     * @return names of the fields banned on exactly this class, not including its supertypes
+     */
+    Set<String> getBannedFields(Class<?> clazz) {
+        return classBans(clazz).fields;
+    }
+
+    private static boolean overridesIsAlwaysAllowed(CallInterceptor callInterceptor) {
+        try {
+            return callInterceptor.getClass().getMethod("isAlwaysAllowed", Class.class, String.class, Class[].class).getDeclaringClass() != CallInterceptor.class;
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private ClassBans classBans(Class<?> clazz) {
+        ClassBans bans = this.classBans.get(clazz);
+        if (bans.version != this.banVersion) {
+            this.classBans.remove(clazz);
+            bans = this.classBans.get(clazz);
+        }
+        return bans;
+    }
+
+    private boolean isBanned(Class<?> clazz) {
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        if (clazz.isPrimitive()) {
+            return false;
+        }
+        String className = clazz.getName();
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot == -1 ? "" : className.substring(0, lastDot);
+        return this.bannedPackageTrie.matches(packageName) || this.bannedClasses.contains(className);
+    }
+
+    private class ClassBans {
+
+        private final int version;
+        private final boolean banned;
+        private final boolean bannedByName;
+        private final Set<String> methods;
+        private final Set<String> fields;
+
+        private ClassBans(Class<?> clazz) {
+            this.version = banVersion;
+            this.banned = isBanned(clazz);
+            this.bannedByName = bannedClasses.contains(clazz.getName());
+            this.methods = bannedMethods.getOrDefault(clazz.getName(), Collections.emptySet());
+            this.fields = bannedFields.getOrDefault(clazz.getName(), Collections.emptySet());
+        }
+
     }
 
 }
@@ -0,0 +1,99 @@
+package com.cleanroommc.groovysandbox.interception;
+
+import java.util.EnumSet;
+
+/**
+ * Holds the chain of {@link CallInterceptor}s for one kind of interception, rebuilding it whenever the registered {@link CallInterceptor}s change.
+ * <p>
+ * Points of a single kind calling the usual hook get a {@link FusedDispatcher}, points with hooks of their own an {@link InterceptChain}.
+ */
+public final class InterceptionPoint {
+
+    /**
+     * The kind whose usual hook is called, or null if the point has a hook of its own.
+     */
+    private final InterceptionKind kind;
+    private final int kinds;
+    private final InterceptChain.Hook hook;
+    private final Invoker terminal;
+
+    private volatile Chain chain;
+
+    public InterceptionPoint(InterceptionKind kind, Invoker terminal) {
+        this.kind = kind;
+        this.kinds = kind.bit;
+        this.hook = kind.hook();
+        this.terminal = terminal;
+    }
+
+    public InterceptionPoint(InterceptionKind kind, InterceptChain.Hook hook, Invoker terminal) {
+        this(EnumSet.of(kind), hook, terminal);
+    }
+
+    /**
+     * @param kinds every kind whose hook the hook may call
+     */
+    public InterceptionPoint(EnumSet<InterceptionKind> kinds, InterceptChain.Hook hook, Invoker terminal) {
+        this.kind = null;
+        this.kinds = InterceptionKind.mask(kinds);
+        this.hook = hook;
+        this.terminal = terminal;
+    }
+
+    public Invoker chain() {
+        Chain chain = this.chain;
+        int version = InterceptionManager.INSTANCE.getVersion();
+        if (chain == null || chain.version != version) {
+            this.chain = chain = new Chain(version, build());
+        }
+        return chain.invoker;
+    }
+
+    public Object call(Object receiver, String method, Object... args) throws Throwable {
+        return chain().call(receiver, method, args);
+    }
+
+    public Object call(Object receiver, String method) throws Throwable {
+        return chain().call(receiver, method);
+    }
+
+    public Object call(Object receiver, String method, Object arg1) throws Throwable {
+        return chain().call(receiver, method, arg1);
+    }
+
+    public Object call(Object receiver, String method, Object arg1, Object arg2) throws Throwable {
+        return chain().call(receiver, method, arg1, arg2);
+    }
+
+    public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3) throws Throwable {
+        return chain().call(receiver, method, arg1, arg2, arg3);
+    }
+
+    public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4) throws Throwable {
+        return chain().call(receiver, method, arg1, arg2, arg3, arg4);
+    }
+
+    private Invoker build() {
+        if (this.kind != null) {
+            try {
+                return FusedDispatcher.of(this.kind, InterceptionManager.INSTANCE.getCallInterceptors(), this.terminal);
+            } catch (ReflectiveOperationException | LinkageError | SecurityException ignored) {
+                // Links can't be generated here, the plain chain calls the same hooks
+            }
+        }
+        return InterceptChain.of(this.kinds, this.hook, this.terminal);
+    }
+
+    private static class Chain {
+
+        private final int version;
+        private final Invoker invoker;
+
+        private Chain(int version, Invoker invoker) {
+            this.version = version;
+            this.invoker = invoker;
+        }
+
+    }
+
+}
@@ -38,4 +38,29 @@ public interface Invoker {
 
     Object call(Object receiver, String method, Object... args) throws Throwable;
 
+    /*
+     * Fixed-arity calls, so that invokers that don't need the arguments as a whole, like terminals, never see an array.
+     * Invokers that do, like those handing the arguments to a CallInterceptor, create it only then.
+     */
+
+    default Object call(Object receiver, String method) throws Throwable {
+        return call(receiver, method, new Object[0]);
+    }
+
+    default Object call(Object receiver, String method, Object arg1) throws Throwable {
+        return call(receiver, method, new Object[] { arg1 });
+    }
+
+    default Object call(Object receiver, String method, Object arg1, Object arg2) throws Throwable {
+        return call(receiver, method, new Object[] { arg1, arg2 });
+    }
+
+    default Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3) throws Throwable {
+        return call(receiver, method, new Object[] { arg1, arg2, arg3 });
+    }
+
+    default Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4) throws Throwable {
+        return call(receiver, method, new Object[] { arg1, arg2, arg3, arg4 });
+    }
+
 }
@@ -2,8 +2,10 @@ package com.cleanroommc.groovysandbox.interception.bubblewrap;
 
 import com.cleanroommc.groovysandbox.util.ClosureSupport;
 import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
-import com.cleanroommc.groovysandbox.interception.CallInterceptor;
-import com.cleanroommc.groovysandbox.interception.InterceptChain;
+import com.cleanroommc.groovysandbox.interception.InterceptionKind;
+import com.cleanroommc.groovysandbox.interception.InterceptionPoint;
+import com.cleanroommc.groovysandbox.interception.Invoker;
+import com.cleanroommc.groovysandbox.interception.Super;
 import com.cleanroommc.groovysandbox.util.Operators;
 import groovy.lang.*;
 import org.codehaus.groovy.classgen.asm.BinaryExpressionHelper;
@@ -12,70 +14,220 @@ import org.codehaus.groovy.reflection.ClassInfo;
 import org.codehaus.groovy.reflection.ParameterTypes;
 import org.codehaus.groovy.runtime.*;
 import org.codehaus.groovy.runtime.callsite.*;
+import org.codehaus.groovy.runtime.wrappers.Wrapper;
 import org.codehaus.groovy.syntax.Types;
 
 import java.io.File;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.codehaus.groovy.runtime.MetaClassHelper.convertToTypeArray;
 
 public class Bubblewrap {
 
     public static final Object[] EMPTY_ARRAY = new Object[0];
+    /**
+     * Most arguments that calls can pass one by one, through the entry points suffixed with their arity like {@link #wrapCall1}.
+     */
+    public static final int MAX_FIXED_ARITY = 4;
 
     private static final Object[] SINGULAR_ELEMENT_ARRAY = new Object[1];
-    private static final DummyCallSite CALL_SITE = new DummyCallSite();
-    private static final ThreadLocal<String> SOURCE = new ThreadLocal<>();
-    private static final ThreadLocal<Integer> LINE_NUMBER = new ThreadLocal<>();
+    /**
+     * Verdicts of {@link #explicitConstructorCallSanity} by the class being constructed, empty if the call is sane.
+     */
+    private static final ClassValue<ConcurrentMap<ExplicitConstructorCall, Optional<String>>> EXPLICIT_CONSTRUCTOR_CALLS = new ClassValue<ConcurrentMap<ExplicitConstructorCall, Optional<String>>>() {
+        @Override
+        protected ConcurrentMap<ExplicitConstructorCall, Optional<String>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    /**
+     * Call sites for the terminal dispatch by receiver type and name, each in their own slot so that Groovy's call site caching holds between calls.
+     * Held through {@link ClassValue} so that script classes can still be unloaded.
+     */
+    private static final ClassValue<ConcurrentMap<String, CallSiteArray>> CALL_SITES = new ClassValue<ConcurrentMap<String, CallSiteArray>>() {
+        @Override
+        protected ConcurrentMap<String, CallSiteArray> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
 
-    public static Object wrapStaticCall(Class receiver, String method, String source, int line, Object[] args) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapStaticCall(receiver, method, args);
+    private static final InterceptionPoint STATIC_CALL = new InterceptionPoint(InterceptionKind.STATIC_CALL, new StaticCallTerminal());
+    private static final InterceptionPoint CONSTRUCTOR_CALL = new InterceptionPoint(InterceptionKind.NEW_INSTANCE, new ConstructorCallTerminal());
+    private static final InterceptionPoint METHOD_CALL = new InterceptionPoint(InterceptionKind.METHOD_CALL, new MethodCallTerminal());
+    private static final InterceptionPoint SUPER_CALL = new InterceptionPoint(InterceptionKind.SUPER_CALL, (receiver, method, args) -> {
+        Super $super = (Super) receiver;
+        try {
+            MetaClass metaClass = InvokerHelper.getMetaClass($super.receiver.getClass());
+            return metaClass.invokeMethod($super.senderType.getSuperclass(), $super.receiver, method, args, true, true);
+        } catch (GroovyRuntimeException exception) {
+            throw ScriptBytecodeAdapter.unwrap(exception);
+        }
+    });
+    private static final InterceptionPoint SUPER_CONSTRUCTOR_CHECK = new InterceptionPoint(InterceptionKind.SUPER_CONSTRUCTOR, (receiver, method, args) -> null);
+    private static final InterceptionPoint GET_PROPERTY = new InterceptionPoint(InterceptionKind.GET_PROPERTY,
+            (receiver, property, args) -> callSite(typeOf(receiver), property).callGetProperty(receiver));
+    private static final InterceptionPoint SET_PROPERTY = new InterceptionPoint(InterceptionKind.SET_PROPERTY, (receiver, property, value) -> {
+        ScriptBytecodeAdapter.setProperty(value[0], null, receiver, property);
+        return value[0];
+    });
+    private static final InterceptionPoint GET_ATTRIBUTE = new InterceptionPoint(InterceptionKind.GET_ATTRIBUTE,
+            (receiver, attribute, args) -> ScriptBytecodeAdapter.getField(null, receiver, attribute)); // According to AsmClassGenerator this is how the compiler maps it
+    private static final InterceptionPoint SET_ATTRIBUTE = new InterceptionPoint(InterceptionKind.SET_ATTRIBUTE, (receiver, attribute, value) -> {
+        ScriptBytecodeAdapter.setField(value[0], null, receiver, attribute); // According to AsmClassGenerator this is how the compiler maps it
+        return value[0];
+    });
+    private static final InterceptionPoint GET_ARRAY = new InterceptionPoint(InterceptionKind.GET_ARRAY, (receiver, method, args) -> {
+        // BinaryExpressionHelper.eval maps this to "getAt" call
+        return callSite(typeOf(receiver), "getAt").call(receiver, args[0]);
+    });
+    private static final InterceptionPoint SET_ARRAY = new InterceptionPoint(InterceptionKind.SET_ARRAY, (receiver, method, args) -> {
+        // BinaryExpressionHelper.assignToArray maps this to "putAt" call
+        return callSite(typeOf(receiver), "putAt").call(receiver, args[0], args[1]);
+    });
+    /**
+     * Comparisons by operator, starting from {@link Types#COMPARE_NOT_EQUAL}, as the terminal has to know which comparison to run.
+     */
+    private static final InterceptionPoint[] COMPARISONS = new InterceptionPoint[Types.COMPARE_TO - Types.COMPARE_NOT_EQUAL + 1];
+    // Checks below only give interceptors the chance to reject, the terminal does nothing
+    private static final InterceptionPoint CALL_CHECK = new InterceptionPoint(EnumSet.of(InterceptionKind.METHOD_CALL, InterceptionKind.STATIC_CALL),
+            (callInterceptor, next, receiver, method, args) -> receiver instanceof Class ?
+                    callInterceptor.onStaticCall(next, (Class) receiver, method, args) :
+                    callInterceptor.onMethodCall(next, receiver, method, args),
+            (receiver, method, args) -> null);
+    private static final InterceptionPoint STATIC_CALL_CHECK = new InterceptionPoint(InterceptionKind.STATIC_CALL, (receiver, method, args) -> null);
+    private static final InterceptionPoint NEW_INSTANCE_CHECK = new InterceptionPoint(InterceptionKind.NEW_INSTANCE, (receiver, method, args) -> null);
+    private static final InterceptionPoint GET_PROPERTY_CHECK = new InterceptionPoint(InterceptionKind.GET_PROPERTY, (receiver, property, args) -> null);
+
+    static {
+        int[] operators = { Types.COMPARE_EQUAL, Types.COMPARE_NOT_EQUAL, Types.COMPARE_LESS_THAN, Types.COMPARE_LESS_THAN_EQUAL,
+                Types.COMPARE_GREATER_THAN, Types.COMPARE_GREATER_THAN_EQUAL, Types.COMPARE_TO };
+        for (int operator : operators) {
+            COMPARISONS[operator - Types.COMPARE_NOT_EQUAL] = new InterceptionPoint(InterceptionKind.METHOD_CALL, (callInterceptor, next, lhs, method, rhs) -> {
+                // Based on what ScriptBytecodeAdapter does
+                return callInterceptor.onMethodCall(next, lhs, lhs instanceof Comparable ? "compareTo" : "equals", rhs);
+            }, (lhs, method, rhs) -> FastOperators.compare(lhs, operator, rhs[0]));
+        }
+    }
+
+    public static Object wrapStaticCall(Class receiver, String method, Object[] args, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapStaticCall(receiver, method, args);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapStaticCall(Class receiver, String method, Object[] args) throws Throwable {
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onStaticCall(this, (Class) receiver, method, args);
-                } else {
-                    setCallSite(method);
-                    return CALL_SITE.callStatic((Class) receiver, args);
-                }
-            }
-        }.call(receiver, method, fixNullArgs(args));
+        return STATIC_CALL.call(receiver, method, fixNullArgs(args));
+    }
+
+    public static Object wrapStaticCall0(Class receiver, String method, SiteTable sites, int site) throws Throwable {
+        try {
+            return STATIC_CALL.call(receiver, method);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapStaticCall1(Class receiver, String method, Object arg1, SiteTable sites, int site) throws Throwable {
+        try {
+            return STATIC_CALL.call(receiver, method, arg1);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
-    public static Object wrapConstructorCall(Class type, String source, int line, Object[] args) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapConstructorCall(type, args);
+    public static Object wrapStaticCall2(Class receiver, String method, Object arg1, Object arg2, SiteTable sites, int site) throws Throwable {
+        try {
+            return STATIC_CALL.call(receiver, method, arg1, arg2);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapStaticCall3(Class receiver, String method, Object arg1, Object arg2, Object arg3, SiteTable sites, int site) throws Throwable {
+        try {
+            return STATIC_CALL.call(receiver, method, arg1, arg2, arg3);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapStaticCall4(Class receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4, SiteTable sites, int site) throws Throwable {
+        try {
+            return STATIC_CALL.call(receiver, method, arg1, arg2, arg3, arg4);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapConstructorCall(Class type, Object[] args, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapConstructorCall(type, args);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapConstructorCall(Class type, Object[] args) throws Throwable {
-        CallSiteSelector.findConstructor(type, args); // TODO: cache this in a lookup?
-        return new InterceptChain() {
-            @Override
-            public Object call(Object type, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onNewInstance(this, (Class) type, args);
-                } else {
-                    setCallSite("<init>");
-                    return CALL_SITE.callConstructor(type, args);
-                }
-            }
-        }.call(type, "<init>", fixNullArgs(args));
+        CallSiteSelector.findConstructor(type, args);
+        return CONSTRUCTOR_CALL.call(type, "<init>", fixNullArgs(args));
+    }
+
+    public static Object wrapConstructorCall0(Class type, SiteTable sites, int site) throws Throwable {
+        try {
+            CallSiteSelector.findConstructor(type, MetaClassHelper.EMPTY_CLASS_ARRAY);
+            return CONSTRUCTOR_CALL.call(type, "<init>");
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapConstructorCall1(Class type, Object arg1, SiteTable sites, int site) throws Throwable {
+        try {
+            CallSiteSelector.findConstructor(type, new Class<?>[] { argType(arg1) });
+            return CONSTRUCTOR_CALL.call(type, "<init>", arg1);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
-    public static Object wrapCall(Object receiver, boolean safe, boolean spread, String method, Object[] args, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapCall(receiver, safe, spread, method, args);
+    public static Object wrapConstructorCall2(Class type, Object arg1, Object arg2, SiteTable sites, int site) throws Throwable {
+        try {
+            CallSiteSelector.findConstructor(type, new Class<?>[] { argType(arg1), argType(arg2) });
+            return CONSTRUCTOR_CALL.call(type, "<init>", arg1, arg2);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapConstructorCall3(Class type, Object arg1, Object arg2, Object arg3, SiteTable sites, int site) throws Throwable {
+        try {
+            CallSiteSelector.findConstructor(type, new Class<?>[] { argType(arg1), argType(arg2), argType(arg3) });
+            return CONSTRUCTOR_CALL.call(type, "<init>", arg1, arg2, arg3);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapConstructorCall4(Class type, Object arg1, Object arg2, Object arg3, Object arg4, SiteTable sites, int site) throws Throwable {
+        try {
+            CallSiteSelector.findConstructor(type, new Class<?>[] { argType(arg1), argType(arg2), argType(arg3), argType(arg4) });
+            return CONSTRUCTOR_CALL.call(type, "<init>", arg1, arg2, arg3, arg4);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapCall(Object receiver, String method, Object[] args, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapCall(receiver, sites.isSafe(site), sites.isSpread(site), method, args);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapCall(Object receiver, boolean safe, boolean spread, String method, Object[] args) throws Throwable {
@@ -141,44 +293,97 @@ public class Bubblewrap {
                 // So we'll have to treat this like any other method.
             }
         }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onMethodCall(this, receiver, method, args);
-                } else {
-                    setCallSite(method);
-                    return CALL_SITE.call(receiver, args);
-                }
+        if (CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(typeOf(receiver), method, convertToTypeArray(args))) {
+            return callSite(receiver, method, args);
+        }
+        return METHOD_CALL.call(receiver, method, args);
+    }
+
+    public static Object wrapCall0(Object receiver, String method, SiteTable sites, int site) throws Throwable {
+        if (!isDirectCall(receiver, sites, site)) {
+            return wrapCall(receiver, method, EMPTY_ARRAY, sites, site);
+        }
+        try {
+            Class<?> type = typeOf(receiver);
+            if (CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(type, method, MetaClassHelper.EMPTY_CLASS_ARRAY)) {
+                return callSite(type, method).call(receiver);
             }
-        }.call(receiver, method, args);
+            return METHOD_CALL.call(receiver, method);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
-    public static Object wrapSuperCall(Class senderType, Object receiver, String method, Object[] args, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapSuperCall(senderType, receiver, method, args);
+    public static Object wrapCall1(Object receiver, String method, Object arg1, SiteTable sites, int site) throws Throwable {
+        if (!isDirectCall(receiver, sites, site)) {
+            return wrapCall(receiver, method, new Object[] { arg1 }, sites, site);
+        }
+        try {
+            Class<?> type = typeOf(receiver);
+            if (CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(type, method, new Class<?>[] { argType(arg1) })) {
+                return callSite(type, method).call(receiver, arg1);
+            }
+            return METHOD_CALL.call(receiver, method, arg1);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
-    public static Object wrapSuperCall(Class senderType, Object receiver, String method, Object[] args) throws Throwable {
-        // Super $super = new Super(senderType, receiver);
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onSuperCall(this, senderType, receiver, method, args);
-                } else {
-                    try {
-                        MetaClass metaClass = InvokerHelper.getMetaClass(receiver.getClass());
-                        return metaClass.invokeMethod(senderType.getSuperclass(), receiver, method, args, true, true);
-                    } catch (GroovyRuntimeException exception) {
-                        throw ScriptBytecodeAdapter.unwrap(exception);
-                    }
-                }
+    public static Object wrapCall2(Object receiver, String method, Object arg1, Object arg2, SiteTable sites, int site) throws Throwable {
+        if (!isDirectCall(receiver, sites, site)) {
+            return wrapCall(receiver, method, new Object[] { arg1, arg2 }, sites, site);
+        }
+        try {
+            Class<?> type = typeOf(receiver);
+            if (CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(type, method, new Class<?>[] { argType(arg1), argType(arg2) })) {
+                return callSite(type, method).call(receiver, arg1, arg2);
             }
-        }.call(/*$super*/null, method, fixNullArgs(args));
+            return METHOD_CALL.call(receiver, method, arg1, arg2);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapCall3(Object receiver, String method, Object arg1, Object arg2, Object arg3, SiteTable sites, int site) throws Throwable {
+        if (!isDirectCall(receiver, sites, site)) {
+            return wrapCall(receiver, method, new Object[] { arg1, arg2, arg3 }, sites, site);
+        }
+        try {
+            Class<?> type = typeOf(receiver);
+            if (CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(type, method, new Class<?>[] { argType(arg1), argType(arg2), argType(arg3) })) {
+                return callSite(type, method).call(receiver, arg1, arg2, arg3);
+            }
+            return METHOD_CALL.call(receiver, method, arg1, arg2, arg3);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapCall4(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4, SiteTable sites, int site) throws Throwable {
+        if (!isDirectCall(receiver, sites, site)) {
+            return wrapCall(receiver, method, new Object[] { arg1, arg2, arg3, arg4 }, sites, site);
+        }
+        try {
+            Class<?> type = typeOf(receiver);
+            if (CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(type, method, new Class<?>[] { argType(arg1), argType(arg2), argType(arg3), argType(arg4) })) {
+                return callSite(type, method).call(receiver, arg1, arg2, arg3, arg4);
+            }
+            return METHOD_CALL.call(receiver, method, arg1, arg2, arg3, arg4);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapSuperCall(Class senderType, Object receiver, String method, Object[] args, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapSuperCall(senderType, receiver, method, args);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapSuperCall(Class senderType, Object receiver, String method, Object[] args) throws Throwable {
+        return SUPER_CALL.call(new Super(senderType, receiver), method, fixNullArgs(args));
     }
 
     public static SuperConstructorWrapper wrapSuperConstructor(Class<?> thisClass, Class<?> superClass, Object[] superCallArgs, Object[] constructorArgs, Class<?>[] paramTypes)
@@ -186,47 +391,24 @@ public class Bubblewrap {
         // Make sure that the call to this synthetic constructor is not illegal.
         CallSiteSelector.findConstructor(superClass, superCallArgs);
         explicitConstructorCallSanity(thisClass, SuperConstructorWrapper.class, constructorArgs, paramTypes);
-        new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    callInterceptor.onSuperConstructor(this, superClass, args);
-                }
-                return null;
-            }
-        }.call(superClass, null, fixNullArgs(superCallArgs));
+        SUPER_CONSTRUCTOR_CHECK.call(superClass, null, fixNullArgs(superCallArgs));
         return new SuperConstructorWrapper(superCallArgs);
     }
 
-    public static Object wrapThisConstructor(final Class<?> clazz, Object[] thisCallArgs, Object[] constructorArgs, Class<?>[] constructorParamTypes, String source, int line)
-            throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapThisConstructor(clazz, thisCallArgs, constructorArgs, constructorParamTypes);
-    }
-
     public static ThisConstructorWrapper wrapThisConstructor(final Class<?> clazz, Object[] thisCallArgs, Object[] constructorArgs, Class<?>[] paramTypes) throws Throwable {
         // Make sure that the call to this synthetic constructor is not illegal.
         CallSiteSelector.findConstructor(clazz, thisCallArgs);
         explicitConstructorCallSanity(clazz, ThisConstructorWrapper.class, constructorArgs, paramTypes);
-        new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    callInterceptor.onNewInstance(this, clazz, args);
-                }
-                return null;
-            }
-        }.call(clazz, null, fixNullArgs(thisCallArgs));
+        NEW_INSTANCE_CHECK.call(clazz, null, fixNullArgs(thisCallArgs));
         return new ThisConstructorWrapper(thisCallArgs);
     }
 
-    public static Object wrapGetProperty(final Object receiver, boolean safe, boolean spread, Object property, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapGetProperty(receiver, safe, spread, property);
+    public static Object wrapGetProperty(Object receiver, Object property, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapGetProperty(receiver, sites.isSafe(site), sites.isSpread(site), property);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapGetProperty(final Object receiver, boolean safe, boolean spread, Object property) throws Throwable {
@@ -264,29 +446,20 @@ public class Bubblewrap {
         if (receiver instanceof Map) { // MetaClassImpl.getProperty looks for Map subtype and handles it as Map.get call, so dispatch that call accordingly.
             return wrapCall(receiver, false, false, "get", new Object[] { property });
         }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String property, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onGetProperty(this, receiver, property);
-                } else {
-                    return ScriptBytecodeAdapter.getProperty(null, receiver, property);
-                }
-            }
-        }.call(receiver, property.toString());
+        return GET_PROPERTY.call(receiver, property.toString());
     }
 
-    public static Object wrapSetProperty(Object receiver, Object property, boolean safe, boolean spread, int operator, Object value, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapSetProperty(receiver, property, safe, spread, operator, value);
+    public static Object wrapSetProperty(Object receiver, Object property, int operator, Object value, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapSetProperty(receiver, property, sites.isSafe(site), sites.isSpread(site), operator, value);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapSetProperty(Object receiver, Object property, boolean safe, boolean spread, int operator, Object value) throws Throwable {
-        if (operator != Types.ASSIGN) { // A compound assignment operator is decomposed into get + operator + set. E.g, a.x += y  => a.x = a.x + y
-            Object v = wrapGetProperty(receiver, safe, spread, property);
-            return wrapSetProperty(receiver, property, safe, spread, Types.ASSIGN, wrapBinaryOperation(v, Operators.compoundAssignmentToBinaryOperator(operator), value));
+        if (operator != Types.ASSIGN) { // A compound assignment operator is a read-modify-write. E.g, a.x += y  => a.x = a.x + y
+            return updateProperty(receiver, property, safe, spread, Operators.compoundAssignmentToBinaryOperator(operator), value, false);
         }
         if (safe && receiver == null) {
             return value;
@@ -320,24 +493,15 @@ public class Bubblewrap {
             wrapCall(receiver, false, false, "put", new Object[] {  property, value });
             return value;
         }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String property, Object... value) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onSetProperty(this, receiver, property, value);
-                } else {
-                    ScriptBytecodeAdapter.setProperty(value, null, receiver, property);
-                    return value;
-                }
-            }
-        }.call(receiver, property.toString(), value);
+        return SET_PROPERTY.call(receiver, property.toString(), value);
     }
 
-    public static Object wrapGetAttribute(Object receiver, boolean safe, boolean spread, Object property, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapGetAttribute(receiver, safe, spread, property);
+    public static Object wrapGetAttribute(Object receiver, Object property, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapGetAttribute(receiver, sites.isSafe(site), sites.isSpread(site), property);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapGetAttribute(Object receiver, boolean safe, boolean spread, Object property) throws Throwable {
@@ -355,23 +519,15 @@ public class Bubblewrap {
             }
             return r;
         }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String property, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onGetAttribute(this, receiver, property);
-                } else {
-                    return ScriptBytecodeAdapter.getField(null, receiver, property); // According to AsmClassGenerator this is how the compiler maps it
-                }
-            }
-        }.call(receiver, property.toString());
+        return GET_ATTRIBUTE.call(receiver, property.toString());
     }
 
-    public static Object wrapSetAttribute(Object receiver, Object property, boolean safe, boolean spread, int operator, Object value, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapSetAttribute(receiver, property, safe, spread, operator, value);
+    public static Object wrapSetAttribute(Object receiver, Object property, int operator, Object value, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapSetAttribute(receiver, property, sites.isSafe(site), sites.isSpread(site), operator, value);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
@@ -380,9 +536,8 @@ public class Bubblewrap {
      * @param operator One of the assignment operators of {@link Types}
      */
     public static Object wrapSetAttribute(Object receiver, Object property, boolean safe, boolean spread, int operator, Object value) throws Throwable {
-        if (operator != Types.ASSIGN) {  // A compound assignment operator is decomposed into get + operator + set. E.g, a.@x += y  => a.@x = a.@x + y
-            Object v = wrapGetAttribute(receiver, safe, spread, property);
-            return wrapSetAttribute(receiver, property, safe, spread, Types.ASSIGN, wrapBinaryOperation(v, Operators.compoundAssignmentToBinaryOperator(operator), value));
+        if (operator != Types.ASSIGN) {  // A compound assignment operator is a read-modify-write. E.g, a.@x += y  => a.@x = a.@x + y
+            return updateAttribute(receiver, property, safe, spread, Operators.compoundAssignmentToBinaryOperator(operator), value, false);
         }
         if (safe && receiver == null) {
             return value;
@@ -397,45 +552,27 @@ public class Bubblewrap {
             }
             return value;
         }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String property, Object... value) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onSetAttribute(this, receiver, property, value);
-                } else {
-                    ScriptBytecodeAdapter.setField(value, null, receiver, property); // According to AsmClassGenerator this is how the compiler maps it
-                    return value;
-                }
-            }
-        }.call(receiver, property.toString(), value);
+        return SET_ATTRIBUTE.call(receiver, property.toString(), value);
     }
 
-    public static Object wrapGetArray(Object receiver, Object index, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapGetArray(receiver, index);
+    public static Object wrapGetArray(Object receiver, Object index, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapGetArray(receiver, index);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     public static Object wrapGetArray(Object receiver, Object index) throws Throwable {
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onGetArray(this, receiver, index);
-                } else {
-                    setCallSite("getAt"); // BinaryExpressionHelper.eval maps this to "getAt" call
-                    return CALL_SITE.call(receiver, index);
-                }
-            }
-        }.call(receiver, null, index);
+        return GET_ARRAY.call(receiver, null, index);
     }
 
-    public static Object wrapSetArray(Object receiver, Object index, int operator, Object value, String source, int line) throws Throwable {
-        SOURCE.set(source);
-        LINE_NUMBER.set(line);
-        return wrapSetArray(receiver, index, operator, value);
+    public static Object wrapSetArray(Object receiver, Object index, int operator, Object value, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapSetArray(receiver, index, operator, value);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
@@ -444,32 +581,33 @@ public class Bubblewrap {
      * @param operator One of the assignment operators of {@link Types}
      */
     public static Object wrapSetArray(Object receiver, Object index, int operator, Object value) throws Throwable {
-        if (operator != Types.ASSIGN) {  // A compound assignment operator is decomposed into get + operator + set. E.g, a.[x] += y  => a.[x] = a.[x] + y
-            Object v = wrapGetArray(receiver, index);
-            return wrapSetArray(receiver, index, Types.ASSIGN, wrapBinaryOperation(v, Operators.compoundAssignmentToBinaryOperator(operator), value));
-        }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object receiver, String method, Object... args) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    return callInterceptor.onSetArray(this, receiver, args[0], args[1]);
-                } else {
-                    setCallSite("putAt"); // BinaryExpressionHelper.assignToArray maps this to "putAt" call
-                    return CALL_SITE.call(receiver, index, value);
-                }
-            }
-        }.call(receiver, null, index, value);
+        if (operator != Types.ASSIGN) {  // A compound assignment operator is a read-modify-write. E.g, a.[x] += y  => a.[x] = a.[x] + y
+            return updateArray(receiver, index, Operators.compoundAssignmentToBinaryOperator(operator), value, false);
+        }
+        return SET_ARRAY.call(receiver, null, index, value);
+    }
+
+    public static Object wrapPrefixArray(Object receiver, Object index, String operator, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapPrefixArray(receiver, index, operator);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
      * ++a[i] / --a[i]
      */
     public static Object wrapPrefixArray(Object r, Object i, String operator) throws Throwable {
-        Object o = wrapGetArray(r, i);
-        Object n = wrapCall(o, false, false, operator, EMPTY_ARRAY);
-        wrapSetArray(r, i, Types.ASSIGN, n);
-        return n;
+        return updateArray(r, i, stepOperator(operator), null, false);
+    }
+
+    public static Object wrapPostfixArray(Object receiver, Object index, String operator, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapPostfixArray(receiver, index, operator);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
@@ -478,30 +616,135 @@ public class Bubblewrap {
      * @param operator "next" for ++, "previous" for --. These names are defined by Groovy.
      */
     public static Object wrapPostfixArray(Object r, Object i, String operator) throws Throwable {
-        Object o = wrapGetArray(r, i);
-        Object n = wrapCall(o, false, false, operator, EMPTY_ARRAY);
-        wrapSetArray(r, i, Types.ASSIGN, n);
-        return o;
+        return updateArray(r, i, stepOperator(operator), null, true);
+    }
+
+    public static Object wrapPrefixProperty(Object receiver, Object property, String operator, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapPrefixProperty(receiver, property, sites.isSafe(site), sites.isSpread(site), operator);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
      * ++a.x / --a.x
      */
     public static Object wrapPrefixProperty(Object receiver, Object property, boolean safe, boolean spread, String operator) throws Throwable {
-        Object o = wrapGetProperty(receiver, safe, spread, property);
-        Object n = wrapCall(o, false, false, operator, EMPTY_ARRAY);
-        wrapSetProperty(receiver, property, safe, spread, Types.ASSIGN, n);
-        return n;
+        return updateProperty(receiver, property, safe, spread, stepOperator(operator), null, false);
+    }
+
+    public static Object wrapPostfixProperty(Object receiver, Object property, String operator, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapPostfixProperty(receiver, property, sites.isSafe(site), sites.isSpread(site), operator);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
      * a.x++ / a.x--
      */
     public static Object wrapPostfixProperty(Object receiver, Object property, boolean safe, boolean spread, String operator) throws Throwable {
-        Object o = wrapGetProperty(receiver, safe, spread, property);
-        Object n = wrapCall(o, false, false, operator, EMPTY_ARRAY);
-        wrapSetProperty(receiver, property, safe, spread, Types.ASSIGN, n);
-        return o;
+        return updateProperty(receiver, property, safe, spread, stepOperator(operator), null, true);
+    }
+
+    public static Object wrapPrefixAttribute(Object receiver, Object property, String operator, SiteTable sites, int site) throws Throwable {
+        try {
+            return updateAttribute(receiver, property, sites.isSafe(site), sites.isSpread(site), stepOperator(operator), null, false);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    public static Object wrapPostfixAttribute(Object receiver, Object property, String operator, SiteTable sites, int site) throws Throwable {
+        try {
+            return updateAttribute(receiver, property, sites.isSafe(site), sites.isSpread(site), stepOperator(operator), null, true);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
+    /**
+     * Read-modify-write of a property, for {@code a.x op= y}, {@code ++a.x} and {@code a.x++}.
+     * <p>
+     * The receiver is only looked at once: plain objects are read and written straight through {@link #GET_PROPERTY} and {@link #SET_PROPERTY},
+     * with the operator in between run by {@link #modify}. Anything that could turn the access into something else goes through
+     * {@link #wrapGetProperty} and {@link #wrapSetProperty} as usual.
+     *
+     * @param operator one of the binary operators of {@link Types}, or {@link Types#PLUS_PLUS} / {@link Types#MINUS_MINUS} for {@code next()} / {@code previous()}
+     * @return the value written, or the value read if postfix
+     */
+    private static Object updateProperty(Object receiver, Object property, boolean safe, boolean spread, int operator, Object operand, boolean postfix) throws Throwable {
+        Object value, updated;
+        if (receiver == null || spread || receiver instanceof Collection || receiver instanceof Map || receiver instanceof Closure) {
+            value = wrapGetProperty(receiver, safe, spread, property);
+            updated = modify(value, operator, operand);
+            wrapSetProperty(receiver, property, safe, spread, Types.ASSIGN, updated);
+        } else {
+            String name = property.toString();
+            value = GET_PROPERTY.call(receiver, name);
+            updated = modify(value, operator, operand);
+            SET_PROPERTY.call(receiver, name, updated);
+        }
+        return postfix ? value : updated;
+    }
+
+    /**
+     * Read-modify-write of an attribute, see {@link #updateProperty}.
+     */
+    private static Object updateAttribute(Object receiver, Object property, boolean safe, boolean spread, int operator, Object operand, boolean postfix) throws Throwable {
+        Object value, updated;
+        if (receiver == null || spread) {
+            value = wrapGetAttribute(receiver, safe, spread, property);
+            updated = modify(value, operator, operand);
+            wrapSetAttribute(receiver, property, safe, spread, Types.ASSIGN, updated);
+        } else {
+            String name = property.toString();
+            value = GET_ATTRIBUTE.call(receiver, name);
+            updated = modify(value, operator, operand);
+            SET_ATTRIBUTE.call(receiver, name, updated);
+        }
+        return postfix ? value : updated;
+    }
+
+    /**
+     * Read-modify-write of an element, see {@link #updateProperty}.
+     */
+    private static Object updateArray(Object receiver, Object index, int operator, Object operand, boolean postfix) throws Throwable {
+        Object value = GET_ARRAY.call(receiver, null, index);
+        Object updated = modify(value, operator, operand);
+        SET_ARRAY.call(receiver, null, index, updated);
+        return postfix ? value : updated;
+    }
+
+    /**
+     * The operator step of a read-modify-write, which only becomes a method call if {@link FastOperators} can't take it.
+     */
+    private static Object modify(Object value, int operator, Object operand) throws Throwable {
+        if (operator != Types.PLUS_PLUS && operator != Types.MINUS_MINUS) {
+            return wrapBinaryOperation(value, operator, operand);
+        }
+        Object result = FastOperators.increment(value, operator);
+        if (result != FastOperators.UNHANDLED) {
+            return result;
+        }
+        return wrapCall(value, false, false, operator == Types.PLUS_PLUS ? "next" : "previous", EMPTY_ARRAY);
+    }
+
+    /**
+     * @param operator "next" or "previous"
+     */
+    private static int stepOperator(String operator) {
+        return "next".equals(operator) ? Types.PLUS_PLUS : Types.MINUS_MINUS;
+    }
+
+    public static Object wrapBinaryOperation(Object lhs, int operator, Object rhs, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapBinaryOperation(lhs, operator, rhs);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
@@ -513,28 +756,129 @@ public class Bubblewrap {
      * @see BinaryExpressionHelper#evaluateBinaryExpressionWithAssignment
      */
     public static Object wrapBinaryOperation(Object lhs, int operator, Object rhs) throws Throwable {
+        Object result = FastOperators.binaryOperation(lhs, operator, rhs);
+        if (result != FastOperators.UNHANDLED) {
+            return result;
+        }
         return wrapCall(lhs, false, false, Operators.binaryOperatorMethods(operator), new Object[] { rhs });
     }
 
+    /**
+     * Guards the operations between operands of types known at compile-time that are left as they are rather than wrapped,
+     * see {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}. They may only run as they are while no interceptor could see them.
+     *
+     * @param operator one of the binary operators of {@link Types}, or {@link Types#PLUS_PLUS} / {@link Types#MINUS_MINUS} for {@code next()} / {@code previous()}
+     * @param rhsType null for {@code next()} / {@code previous()}
+     */
+    public static boolean isUnobserved(int operator, Class<?> lhsType, Class<?> rhsType) {
+        return FastOperators.isUnobserved(operator, lhsType, rhsType);
+    }
+
+    /**
+     * Folds an operation between constants at compile-time, see {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}.
+     * The constant is only used where {@link #isUnobserved} holds for the operation when it runs.
+     *
+     * @return the result of {@code lhs operator rhs}, or null if it can't be worked out ahead of time
+     */
+    public static Object fold(Object lhs, int operator, Object rhs) {
+        Object result = FastOperators.fold(lhs, operator, rhs);
+        return result != FastOperators.UNHANDLED ? result : null;
+    }
+
+    /**
+     * Guards the calls to members of types known at compile-time that are left as they are rather than wrapped,
+     * see {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}. They may only be made as they are while no interceptor could see them.
+     *
+     * @param isStatic whether the receiver is the class itself
+     * @param receiverType the class of the receiver, or the class whose static method is called
+     */
+    public static boolean isUnobservedCall0(boolean isStatic, Class<?> receiverType, String method, SiteTable sites, int site) {
+        Boolean verdict = DirectCalls.verdict(sites, site);
+        return verdict != null ? verdict : DirectCalls.decide(sites, site, isStatic, receiverType, method);
+    }
+
+    public static boolean isUnobservedCall1(boolean isStatic, Class<?> receiverType, String method, Class<?> argType1, SiteTable sites, int site) {
+        Boolean verdict = DirectCalls.verdict(sites, site);
+        return verdict != null ? verdict : DirectCalls.decide(sites, site, isStatic, receiverType, method, argType1);
+    }
+
+    public static boolean isUnobservedCall2(boolean isStatic, Class<?> receiverType, String method, Class<?> argType1, Class<?> argType2, SiteTable sites, int site) {
+        Boolean verdict = DirectCalls.verdict(sites, site);
+        return verdict != null ? verdict : DirectCalls.decide(sites, site, isStatic, receiverType, method, argType1, argType2);
+    }
+
+    public static boolean isUnobservedCall3(boolean isStatic, Class<?> receiverType, String method, Class<?> argType1, Class<?> argType2, Class<?> argType3,
+                                            SiteTable sites, int site) {
+        Boolean verdict = DirectCalls.verdict(sites, site);
+        return verdict != null ? verdict : DirectCalls.decide(sites, site, isStatic, receiverType, method, argType1, argType2, argType3);
+    }
+
+    public static boolean isUnobservedCall4(boolean isStatic, Class<?> receiverType, String method, Class<?> argType1, Class<?> argType2, Class<?> argType3,
+                                            Class<?> argType4, SiteTable sites, int site) {
+        Boolean verdict = DirectCalls.verdict(sites, site);
+        return verdict != null ? verdict : DirectCalls.decide(sites, site, isStatic, receiverType, method, argType1, argType2, argType3, argType4);
+    }
+
+    /**
+     * Makes the verdict on a call a loop makes on a receiver that stays the same throughout, as the loop starts,
+     * see {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}.
+     */
+    public static LoopGuard guardLoopCall(Object receiver, String method) {
+        return new LoopGuard(receiver, method);
+    }
+
+    /**
+     * Guards the calls loops make that are left as they are rather than wrapped, see {@link #guardLoopCall}.
+     * They may only be made as they are while no interceptor could see them.
+     */
+    public static boolean isUnobservedLoopCall0(LoopGuard guard) {
+        return guard.holds0();
+    }
+
+    public static boolean isUnobservedLoopCall1(LoopGuard guard, Object arg1) {
+        return guard.holds1(arg1);
+    }
+
+    public static boolean isUnobservedLoopCall2(LoopGuard guard, Object arg1, Object arg2) {
+        return guard.holds2(arg1, arg2);
+    }
+
+    public static boolean isUnobservedLoopCall3(LoopGuard guard, Object arg1, Object arg2, Object arg3) {
+        return guard.holds3(arg1, arg2, arg3);
+    }
+
+    public static boolean isUnobservedLoopCall4(LoopGuard guard, Object arg1, Object arg2, Object arg3, Object arg4) {
+        return guard.holds4(arg1, arg2, arg3, arg4);
+    }
+
+    public static Object wrapComparison(Object lhs, int operator, Object rhs, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapComparison(lhs, operator, rhs);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
+    }
+
     /**
      * A compare method that invokes a.equals(b) or a.compareTo(b) == 0
      */
     public static Object wrapComparison(Object lhs, final int operator, Object rhs) throws Throwable {
         if (lhs == null) { // Bypass the checker if lhs is null, as it will not result in any calls that will require protection
-            return InvokerHelper.invokeStaticMethod(ScriptBytecodeAdapter.class, Operators.binaryOperatorMethods(operator), new Object[] { null, rhs });
-        }
-        return new InterceptChain() {
-            @Override
-            public Object call(Object lhs, String method, Object... rhs) throws Throwable {
-                CallInterceptor callInterceptor = next();
-                if (callInterceptor != null) {
-                    // Based on what ScriptBytecodeAdapter does
-                    return callInterceptor.onMethodCall(this, lhs, lhs instanceof Comparable ? "compareTo" : "equals", rhs);
-                } else {
-                    return InvokerHelper.invokeStaticMethod(ScriptBytecodeAdapter.class, Operators.binaryOperatorMethods(operator), new Object[] { lhs, rhs });
-                }
-            }
-        }.call(lhs, null, rhs);
+            return FastOperators.compare(null, operator, rhs);
+        }
+        Object result = FastOperators.comparison(lhs, operator, rhs);
+        if (result != FastOperators.UNHANDLED) {
+            return result;
+        }
+        return comparison(operator).call(lhs, null, rhs);
+    }
+
+    public static Object wrapCast(Class<?> clazz, Object exp, boolean ignoreAutoboxing, boolean coerce, boolean strict, SiteTable sites, int site) throws Throwable {
+        try {
+            return wrapCast(clazz, exp, ignoreAutoboxing, coerce, strict);
+        } catch (SandboxSecurityException exception) {
+            throw sites.locate(exception, site);
+        }
     }
 
     /**
@@ -560,21 +904,7 @@ public class Bubblewrap {
                         args[i] = getDefaultValue(paramTypes[i]);
                     }
                     // We intercept all methods defined on the interface to ensure they are permitted, and deliberately ignore the return value
-                    new InterceptChain() {
-                        @Override
-                        public Object call(Object receiver, String method, Object... args) throws Throwable {
-                            CallInterceptor callInterceptor = next();
-                            if (callInterceptor != null) {
-                                if (receiver instanceof Class) {
-                                    return callInterceptor.onStaticCall(this, (Class) receiver, method, args);
-                                } else {
-                                    return callInterceptor.onMethodCall(this, receiver, method, args);
-                                }
-                            } else {
-                                return null;
-                            }
-                        }
-                    }.call(exp, method.getName(), args);
+                    CALL_CHECK.call(exp, method.getName(), args);
                 }
             } else if (!clazz.isArray() && clazz != Object.class && !Modifier.isAbstract(clazz.getModifiers()) &&
                     (exp instanceof Collection || exp instanceof Map || exp.getClass().isArray())) {
@@ -595,60 +925,20 @@ public class Bubblewrap {
                     throw new UnsupportedOperationException("Casting arrays to types via constructor is not yet supported");
                 }
                 // We intercept the constructor that will be used for the cast, and again, deliberately ignore the return value
-                new InterceptChain() {
-                    @Override
-                    public Object call(Object receiver, String method, Object... args) throws Throwable {
-                        CallInterceptor callInterceptor = next();
-                        if (callInterceptor != null) {
-                            return callInterceptor.onNewInstance(this, (Class) receiver, args);
-                        } else {
-                            return null;
-                        }
-                    }
-                }.call(clazz, null, args);
+                NEW_INSTANCE_CHECK.call(clazz, null, args);
             } else if (clazz == File.class && exp instanceof CharSequence) {
                 // See DefaultTypeTransformation.asCollection
-                new InterceptChain() {
-                    @Override
-                    public Object call(Object receiver, String method, Object... args) throws Throwable {
-                        CallInterceptor callInterceptor = next();
-                        if (callInterceptor != null) {
-                            return callInterceptor.onNewInstance(this, (Class) receiver, args);
-                        } else {
-                            return null;
-                        }
-                    }
-                }.call(clazz, null, exp.toString());
+                NEW_INSTANCE_CHECK.call(clazz, null, exp.toString());
             } else if (exp instanceof Class && ((Class) exp).isEnum() && (clazz.isArray() || Collection.class.isAssignableFrom(clazz))) {
                 // See DefaultTypeTransformation.asCollection
                 // We intercept the method that will be used for the cast, and again, deliberately ignore the return value:
-                new InterceptChain() {
-                    @Override
-                    public Object call(Object receiver, String method, Object... args) throws Throwable {
-                        CallInterceptor callInterceptor = next();
-                        if (callInterceptor != null) {
-                            return callInterceptor.onStaticCall(this, (Class) receiver, method, args);
-                        } else {
-                            return null;
-                        }
-                    }
-                }.call(ResourceGroovyMethods.class, "readLines", exp);
+                STATIC_CALL_CHECK.call(ResourceGroovyMethods.class, "readLines", exp);
             } else if (exp instanceof Class && ((Class) exp).isEnum() && (clazz.isArray() || Collection.class.isAssignableFrom(clazz))) {
                 // See DefaultTypeTransformation.asCollection
                 for (Field field : ((Class) exp).getFields()) {
                     if (field.isEnumConstant()) {
                         // We intercept all Enum constants to ensure they are permitted, and deliberately ignore the return value
-                        new InterceptChain() {
-                            @Override
-                            public Object call(Object receiver, String field, Object... args) throws Throwable {
-                                CallInterceptor callInterceptor = next();
-                                if (callInterceptor != null) {
-                                    return callInterceptor.onGetProperty(this, receiver, field);
-                                } else {
-                                    return null;
-                                }
-                            }
-                        }.call(exp, field.getName());
+                        GET_PROPERTY_CHECK.call(exp, field.getName());
                     }
                 }
             }
@@ -663,9 +953,53 @@ public class Bubblewrap {
         return (T) Array.get(Array.newInstance(clazz, 1), 0);
     }
 
-    private static DummyCallSite setCallSite(String name) {
-        CALL_SITE.name = name;
-        return CALL_SITE;
+    private static InterceptionPoint comparison(int operator) {
+        int index = operator - Types.COMPARE_NOT_EQUAL;
+        if (index < 0 || index >= COMPARISONS.length || COMPARISONS[index] == null) {
+            throw new IllegalArgumentException("" + operator);
+        }
+        return COMPARISONS[index];
+    }
+
+    /**
+     * Terminal dispatch of an instance method call, once every interceptor has let it through.
+     */
+    static Object callSite(Object receiver, String method, Object[] args) throws Throwable {
+        return callSite(typeOf(receiver), method).call(receiver, args);
+    }
+
+    private static CallSite callSite(Class<?> type, String name) {
+        ConcurrentMap<String, CallSiteArray> callSites = CALL_SITES.get(type);
+        CallSiteArray callSiteArray = callSites.get(name);
+        if (callSiteArray == null) {
+            callSiteArray = callSites.computeIfAbsent(name, TerminalCallSite::createArray);
+        }
+        // The slot holds whichever call site Groovy specialised it into last
+        return callSiteArray.array[0];
+    }
+
+    private static Class<?> typeOf(Object receiver) {
+        return receiver == null ? NullObject.class : receiver.getClass();
+    }
+
+    /**
+     * @return the type of the argument as {@link MetaClassHelper#convertToTypeArray} has it
+     */
+    static Class<?> argType(Object arg) {
+        if (arg == null) {
+            return null;
+        }
+        return arg instanceof Wrapper ? ((Wrapper) arg).getType() : arg.getClass();
+    }
+
+    /**
+     * @return true if a call passing its arguments one by one can skip the checks of {@link #wrapCall(Object, boolean, boolean, String, Object[])} that look at them as a whole
+     */
+    private static boolean isDirectCall(Object receiver, SiteTable sites, int site) {
+        if (receiver == null) {
+            return !sites.isSafe(site);
+        }
+        return !sites.isSpread(site) && !(receiver instanceof Class) && !(receiver instanceof Closure);
     }
 
     private static Object[] fixNullArgs(Object[] args) {
@@ -698,6 +1032,22 @@ public class Bubblewrap {
         Class<?>[] argTypes = new Class<?>[argsExcludingWrapper.length + 1];
         argTypes[0] = wrapperClass;
         System.arraycopy(MetaClassHelper.convertToTypeArray(argsExcludingWrapper), 0, argTypes, 1, argsExcludingWrapper.length);
+        // The verdict only depends on the types involved, so it is only worked out once for each
+        ExplicitConstructorCall key = new ExplicitConstructorCall(argTypes, paramsIncludingWrapper);
+        ConcurrentMap<ExplicitConstructorCall, Optional<String>> verdicts = EXPLICIT_CONSTRUCTOR_CALLS.get(thisClass);
+        Optional<String> verdict = verdicts.get(key);
+        if (verdict == null) {
+            verdict = explicitConstructorCallVerdict(thisClass, argTypes, paramsIncludingWrapper);
+            if (CallSiteSelector.isCacheable(thisClass, argTypes)) {
+                verdicts.putIfAbsent(key, verdict);
+            }
+        }
+        if (verdict.isPresent()) {
+            throw new SandboxSecurityException(verdict.get());
+        }
+    }
+
+    private static Optional<String> explicitConstructorCallVerdict(Class<?> thisClass, Class<?>[] argTypes, Class<?>[] paramsIncludingWrapper) {
         // Find the constructor that the sandbox is expecting will be called.
         Constructor<?> expectedConstructor;
         try {
@@ -712,27 +1062,166 @@ public class Bubblewrap {
             // Otherwise that would be the constructor that would actually be invoked.
             ParameterTypes paramTypes = new ParameterTypes(ctor.getParameterTypes());
             if (!ctor.equals(expectedConstructor) && paramTypes.isValidMethod(argTypes) && CallSiteSelector.isMoreSpecific(paramTypes, expectedParamTypes, argTypes)) {
-                throw new SandboxSecurityException("Rejecting unexpected invocation of constructor: " + ctor + ". Expected to invoke synthetic constructor: " + expectedConstructor);
+                return Optional.of("Rejecting unexpected invocation of constructor: " + ctor + ". Expected to invoke synthetic constructor: " + expectedConstructor);
             }
         }
+        return Optional.empty();
     }
 
     private Bubblewrap() { }
 
-    private static class DummyCallSite extends AbstractCallSite {
+    private static class ExplicitConstructorCall {
+
+        private final Class<?>[] argTypes;
+        private final Class<?>[] paramTypes;
+        private final int hashCode;
+
+        private ExplicitConstructorCall(Class<?>[] argTypes, Class<?>[] paramTypes) {
+            this.argTypes = argTypes;
+            this.paramTypes = paramTypes;
+            this.hashCode = 31 * Arrays.hashCode(argTypes) + Arrays.hashCode(paramTypes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ExplicitConstructorCall)) {
+                return false;
+            }
+            ExplicitConstructorCall other = (ExplicitConstructorCall) obj;
+            return Arrays.equals(this.argTypes, other.argTypes) && Arrays.equals(this.paramTypes, other.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+    /**
+     * Terminal dispatch of an instance method call, once every interceptor has let it through.
+     * Arguments that come one by one are handed to the {@link CallSite} as such.
+     */
+    private static class MethodCallTerminal implements Invoker {
+
+        @Override
+        public Object call(Object receiver, String method, Object... args) throws Throwable {
+            return callSite(typeOf(receiver), method).call(receiver, args);
+        }
+
+        @Override
+        public Object call(Object receiver, String method) throws Throwable {
+            return callSite(typeOf(receiver), method).call(receiver);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1) throws Throwable {
+            return callSite(typeOf(receiver), method).call(receiver, arg1);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2) throws Throwable {
+            return callSite(typeOf(receiver), method).call(receiver, arg1, arg2);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3) throws Throwable {
+            return callSite(typeOf(receiver), method).call(receiver, arg1, arg2, arg3);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4) throws Throwable {
+            return callSite(typeOf(receiver), method).call(receiver, arg1, arg2, arg3, arg4);
+        }
+
+    }
+
+    /**
+     * Terminal dispatch of a static method call, once every interceptor has let it through.
+     * Arguments that come one by one are handed to the {@link CallSite} as such.
+     */
+    private static class StaticCallTerminal implements Invoker {
+
+        @Override
+        public Object call(Object receiver, String method, Object... args) throws Throwable {
+            return callSite((Class) receiver, method).callStatic((Class) receiver, args);
+        }
 
-        private static final CallSiteArray callSiteArray = new CallSiteArray(Bubblewrap.class, new String[] { "" });
+        @Override
+        public Object call(Object receiver, String method) throws Throwable {
+            return callSite((Class) receiver, method).callStatic((Class) receiver);
+        }
 
-        private String name;
+        @Override
+        public Object call(Object receiver, String method, Object arg1) throws Throwable {
+            return callSite((Class) receiver, method).callStatic((Class) receiver, arg1);
+        }
 
-        public DummyCallSite() {
-            super(callSiteArray, 0, "");
-            callSiteArray.array[0] = this;
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2) throws Throwable {
+            return callSite((Class) receiver, method).callStatic((Class) receiver, arg1, arg2);
         }
 
         @Override
-        public String getName() {
-            return this.name;
+        public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3) throws Throwable {
+            return callSite((Class) receiver, method).callStatic((Class) receiver, arg1, arg2, arg3);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4) throws Throwable {
+            return callSite((Class) receiver, method).callStatic((Class) receiver, arg1, arg2, arg3, arg4);
+        }
+
+    }
+
+    /**
+     * Terminal dispatch of a constructor call, once every interceptor has let it through.
+     * Arguments that come one by one are handed to the {@link CallSite} as such.
+     */
+    private static class ConstructorCallTerminal implements Invoker {
+
+        @Override
+        public Object call(Object receiver, String method, Object... args) throws Throwable {
+            return callSite((Class) receiver, "<init>").callConstructor(receiver, args);
+        }
+
+        @Override
+        public Object call(Object receiver, String method) throws Throwable {
+            return callSite((Class) receiver, "<init>").callConstructor(receiver);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1) throws Throwable {
+            return callSite((Class) receiver, "<init>").callConstructor(receiver, arg1);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2) throws Throwable {
+            return callSite((Class) receiver, "<init>").callConstructor(receiver, arg1, arg2);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3) throws Throwable {
+            return callSite((Class) receiver, "<init>").callConstructor(receiver, arg1, arg2, arg3);
+        }
+
+        @Override
+        public Object call(Object receiver, String method, Object arg1, Object arg2, Object arg3, Object arg4) throws Throwable {
+            return callSite((Class) receiver, "<init>").callConstructor(receiver, arg1, arg2, arg3, arg4);
+        }
+
+    }
+
+    private static class TerminalCallSite extends AbstractCallSite {
+
+        static CallSiteArray createArray(String name) {
+            CallSiteArray callSiteArray = new CallSiteArray(Bubblewrap.class, new String[] { name });
+            callSiteArray.array[0] = new TerminalCallSite(callSiteArray, name);
+            return callSiteArray;
+        }
+
+        private TerminalCallSite(CallSiteArray callSiteArray, String name) {
+            super(callSiteArray, 0, name);
         }
 
         @Override
@@ -0,0 +1,192 @@
+package com.cleanroommc.groovysandbox.interception.bubblewrap;
+
+import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
+import com.cleanroommc.groovysandbox.interception.InterceptionKind;
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import com.cleanroommc.groovysandbox.interception.InterceptionPoint;
+import groovy.lang.*;
+import org.codehaus.groovy.reflection.ClassInfo;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.MetaClassHelper;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
+
+import java.lang.invoke.*;
+
+/**
+ * An invokedynamic call site for sandboxed method calls of the form "foo.bar(...)".
+ * <p>
+ * Each call site starts off linked to {@link #fallback}, which dispatches through {@link Bubblewrap#wrapCall} as usual.
+ * For plain receivers, the site then links a target guarded on receiver class, argument types and metaclass version.
+ * That target still walks the interceptor chain, but skips the receiver special-casing and metaclass lookup done by
+ * {@link Bubblewrap#wrapCall} on every call, and lets the JIT inline the permitted target.
+ * If every interceptor always allows the call, see {@link com.cleanroommc.groovysandbox.interception.CallInterceptor#isAlwaysAllowed},
+ * the target skips the interceptor chain as well for as long as that verdict holds.
+ * <p>
+ * Sites that see too many receiver shapes are relinked to plain {@link Bubblewrap#wrapCall} permanently.
+ *
+ * @see com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer
+ */
+public class BubblewrapCallSite extends MutableCallSite {
+
+    public static final String BOOTSTRAP_NAME = "bootstrap";
+    public static final String BOOTSTRAP_DESCRIPTOR = MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, String.class, int.class, String.class, int.class)
+            .toMethodDescriptorString();
+    public static final String CALL_DESCRIPTOR = MethodType.methodType(Object.class, Object.class, Object[].class).toMethodDescriptorString();
+
+    public static final int FLAG_SAFE = 1;
+
+    private static final int MAX_DEPTH = 4;
+
+    private static final MethodHandle FALLBACK, GENERIC, GUARD, INVOKE, INVOKE_ALLOWED;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            FALLBACK = lookup.findVirtual(BubblewrapCallSite.class, "fallback", MethodType.methodType(Object.class, Object.class, Object[].class));
+            GENERIC = lookup.findVirtual(BubblewrapCallSite.class, "generic", MethodType.methodType(Object.class, Object.class, Object[].class));
+            GUARD = lookup.findStatic(BubblewrapCallSite.class, "guard",
+                    MethodType.methodType(boolean.class, Class.class, Class[].class, MetaClass.class, ClassInfo.class, int.class, Object.class, Object[].class));
+            INVOKE = lookup.findVirtual(BubblewrapCallSite.class, "invoke", MethodType.methodType(Object.class, InterceptionPoint.class, Object.class, Object[].class));
+            INVOKE_ALLOWED = lookup.findVirtual(BubblewrapCallSite.class, "invokeAllowed",
+                    MethodType.methodType(Object.class, int.class, int.class, MetaMethod.class, InterceptionPoint.class, Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Bootstrap method for the invokedynamic instructions emitted by {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}.
+     *
+     * @param method name of the method being called
+     * @param flags  bitmask of {@link #FLAG_SAFE}
+     * @param source name of the script the call site is in
+     * @param line   line number of the call site
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String method, int flags, String source, int line) {
+        return new BubblewrapCallSite(type, method, (flags & FLAG_SAFE) != 0, source, line);
+    }
+
+    private final String method;
+    private final boolean safe;
+    private final String source;
+    private final int line;
+
+    private int depth = 0;
+
+    private BubblewrapCallSite(MethodType type, String method, boolean safe, String source, int line) {
+        super(type);
+        this.method = method;
+        this.safe = safe;
+        this.source = source;
+        this.line = line;
+        setTarget(FALLBACK.bindTo(this).asType(type));
+    }
+
+    private Object fallback(Object receiver, Object[] args) throws Throwable {
+        relink(receiver, args);
+        return generic(receiver, args);
+    }
+
+    private Object generic(Object receiver, Object[] args) throws Throwable {
+        try {
+            return Bubblewrap.wrapCall(receiver, this.safe, false, this.method, args);
+        } catch (SandboxSecurityException exception) {
+            throw exception.locate(this.source, this.line);
+        }
+    }
+
+    private Object invoke(InterceptionPoint point, Object receiver, Object[] args) throws Throwable {
+        try {
+            return point.call(receiver, this.method, args);
+        } catch (SandboxSecurityException exception) {
+            throw exception.locate(this.source, this.line);
+        }
+    }
+
+    /**
+     * Skips the interceptors while the verdict that allowed the call ahead of time still holds.
+     */
+    private Object invokeAllowed(int version, int banVersion, MetaMethod metaMethod, InterceptionPoint point, Object receiver, Object[] args) throws Throwable {
+        if (!CallVerdicts.isCurrent(version, banVersion)) {
+            return invoke(point, receiver, args);
+        }
+        return invoke(metaMethod, receiver, args);
+    }
+
+    private static Object invoke(MetaMethod metaMethod, Object receiver, Object[] args) throws Throwable {
+        try {
+            return metaMethod.doMethodInvoke(receiver, args);
+        } catch (GroovyRuntimeException exception) {
+            throw ScriptBytecodeAdapter.unwrap(exception);
+        }
+    }
+
+    /**
+     * Method call interception that ends in the already resolved {@link MetaMethod}.
+     */
+    private static InterceptionPoint methodCall(MetaMethod metaMethod) {
+        return new InterceptionPoint(InterceptionKind.METHOD_CALL, (receiver, method, args) -> {
+            if (method.equals(metaMethod.getName()) && metaMethod.getDeclaringClass().isAssignableFrom(receiver.getClass()) && metaMethod.isValidMethod(args)) {
+                return invoke(metaMethod, receiver, args);
+            }
+            // An interceptor swapped the call out from under us
+            return Bubblewrap.callSite(receiver, method, args);
+        });
+    }
+
+    private void relink(Object receiver, Object[] args) {
+        if (this.depth < 0) {
+            return;
+        }
+        if (++this.depth > MAX_DEPTH) {
+            this.depth = -1;
+            setTarget(GENERIC.bindTo(this).asType(type()));
+            return;
+        }
+        if (receiver == null || args == null || receiver instanceof Class || receiver instanceof Closure || receiver instanceof GroovyInterceptable) {
+            return;
+        }
+        if (GroovyCategorySupport.hasCategoryInCurrentThread()) {
+            return;
+        }
+        MetaClass metaClass = InvokerHelper.getMetaClass(receiver);
+        if (metaClass.getClass() != MetaClassImpl.class) {
+            return;
+        }
+        Class<?>[] argTypes = MetaClassHelper.convertToTypeArray(args);
+        MetaMethod metaMethod = metaClass.pickMethod(this.method, argTypes);
+        if (metaMethod == null || metaMethod.isStatic()) {
+            return;
+        }
+        ClassInfo classInfo = ClassInfo.getClassInfo(receiver.getClass());
+        MethodHandle guard = MethodHandles.insertArguments(GUARD, 0, receiver.getClass(), argTypes, metaClass, classInfo, classInfo.getVersion());
+        MethodHandle invoke;
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        int version = manager.getVersion();
+        int banVersion = manager.getBanVersion();
+        if (CallVerdicts.isAlwaysAllowed(receiver.getClass(), this.method, argTypes)) {
+            invoke = MethodHandles.insertArguments(INVOKE_ALLOWED, 0, this, version, banVersion, metaMethod, methodCall(metaMethod));
+        } else {
+            invoke = MethodHandles.insertArguments(INVOKE, 0, this, methodCall(metaMethod));
+        }
+        setTarget(MethodHandles.guardWithTest(guard, invoke, getTarget()).asType(type()));
+    }
+
+    private static boolean guard(Class<?> receiverType, Class<?>[] argTypes, MetaClass metaClass, ClassInfo classInfo, int version, Object receiver, Object[] args) {
+        if (receiver == null || receiver.getClass() != receiverType || args == null || args.length != argTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if ((arg == null ? null : arg.getClass()) != argTypes[i]) {
+                return false;
+            }
+        }
+        if (classInfo.getVersion() != version || GroovyCategorySupport.hasCategoryInCurrentThread()) {
+            return false;
+        }
+        return !(receiver instanceof GroovyObject) || ((GroovyObject) receiver).getMetaClass() == metaClass;
+    }
+
+}
@@ -8,6 +8,7 @@ public class BubblewrappedMethodClosure extends MethodClosure {
 
     private static final Object[] SINGULAR_ELEMENT_ARRAY = new Object[1];
     private static final String DUMMY_METHOD_NAME = "BubblewrappedClosure";
+    private static final SiteTable SITES = new SiteTable(DUMMY_METHOD_NAME, new int[] { -1 }, new int[] { 0 });
 
     public BubblewrappedMethodClosure(Object owner, String method) {
         super(owner, method);
@@ -32,7 +33,7 @@ public class BubblewrappedMethodClosure extends MethodClosure {
      */
     protected Object doCall(Object[] arguments) {
         try {
-            return Bubblewrap.wrapCall(getOwner(), false, false, getMethod(), arguments, DUMMY_METHOD_NAME, -1);
+            return Bubblewrap.wrapCall(getOwner(), getMethod(), arguments, SITES, 0);
         } catch (Throwable e) {
             throw new InvokerInvocationException(e);
         }
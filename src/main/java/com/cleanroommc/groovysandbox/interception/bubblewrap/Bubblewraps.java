@@ -14,11 +14,19 @@ public enum Bubblewraps {
     wrapPostfixArray,
     wrapPrefixProperty,
     wrapPostfixProperty,
+    wrapPrefixAttribute,
+    wrapPostfixAttribute,
     wrapGetArray,
     wrapSetArray,
     wrapCast,
     wrapComparison,
     wrapBinaryOperation;
 
+    /**
+     * @return the name of the entry point taking that many arguments one by one, see {@link Bubblewrap#MAX_FIXED_ARITY}
+     */
+    public String withArity(int arity) {
+        return name() + arity;
+    }
 
 }
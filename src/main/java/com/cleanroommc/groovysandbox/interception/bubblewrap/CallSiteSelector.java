@@ -4,12 +4,25 @@ import org.codehaus.groovy.reflection.ParameterTypes;
 import org.codehaus.groovy.runtime.MetaClassHelper;
 
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class CallSiteSelector {
 
+    /**
+     * Declared constructors and resolved constructor calls of each class, so that repeated instantiations skip the reflection.
+     */
+    private static final ClassValue<Constructors> CONSTRUCTORS = new ClassValue<Constructors>() {
+        @Override
+        protected Constructors computeValue(Class<?> type) {
+            return new Constructors(type);
+        }
+    };
+
     /**
      * Find the {@link Constructor} that Groovy will invoke at runtime for the given type and arguments.
      *
@@ -17,34 +30,61 @@ public class CallSiteSelector {
      *                           added by SandboxTransformer and the constructor wrapper argument is invalid.
      */
     public static Constructor<?> findConstructor(Class<?> type, Object[] args) {
-        Constructor<?> c = constructor(type, args);
+        return findConstructor(type, MetaClassHelper.convertToTypeArray(args));
+    }
+
+    /**
+     * @param argTypes the classes of the arguments, with null elements for null arguments
+     * @see #findConstructor(Class, Object[])
+     */
+    static Constructor<?> findConstructor(Class<?> type, Class<?>[] argTypes) {
+        Constructors constructors = CONSTRUCTORS.get(type);
+        ArgumentTypes key = new ArgumentTypes(argTypes);
+        Resolution resolution = constructors.resolutions.get(key);
+        if (resolution == null) {
+            resolution = resolve(constructors, type, argTypes);
+            if (isCacheable(type, argTypes)) {
+                constructors.resolutions.putIfAbsent(key, resolution);
+            }
+        }
+        if (resolution.error != null) {
+            throw new SecurityException(resolution.error);
+        }
+        return resolution.constructor;
+    }
+
+    private static Resolution resolve(Constructors constructors, Class<?> type, Class<?>[] argTypes) {
+        Constructor<?> c = constructor(constructors, argTypes);
         if (c == null) {
-            throw new SecurityException("Unable to find constructor: " + formatConstructor(type, args));
+            return new Resolution(null, "Unable to find constructor: new " + getName(type) + printArgumentTypes(argTypes));
         }
         // Check to make sure that users are not directly calling synthetic constructors without going through
         // `Checker.checkedSuperConstructor` or `Checker.checkedThisConstructor`. Part of SECURITY-1754.
-        if (isIllegalCallToSyntheticConstructor(c, args)) {
-            String alternateConstructors = Stream.of(c.getDeclaringClass().getDeclaredConstructors())
+        if (isIllegalCallToSyntheticConstructor(c, argTypes)) {
+            String alternateConstructors = Stream.of(constructors.constructors)
                     .filter(tempC -> !isSyntheticConstructor(tempC))
                     .map(Object::toString)
                     .sorted()
                     .collect(Collectors.joining(", "));
-            throw new SecurityException("Rejecting illegal call to synthetic constructor: " + c + ". Perhaps you meant to use one of these constructors instead: " + alternateConstructors);
+            return new Resolution(null, "Rejecting illegal call to synthetic constructor: " + c + ". Perhaps you meant to use one of these constructors instead: " + alternateConstructors);
         }
-        return c;
+        return new Resolution(c, null);
     }
 
     static Constructor<?> constructor(Class<?> receiver, Object[] args) {
-        Constructor<?>[] constructors = receiver.getDeclaredConstructors();
+        return constructor(CONSTRUCTORS.get(receiver), MetaClassHelper.convertToTypeArray(args));
+    }
+
+    private static Constructor<?> constructor(Constructors constructors, Class<?>[] argTypes) {
         Constructor<?> bestMatch = null;
-        ParameterTypes bestMatchParamTypes = null;
-        Class<?>[] argTypes = MetaClassHelper.convertToTypeArray(args);
-        for (Constructor<?> c : constructors) {
-            ParameterTypes cParamTypes = new ParameterTypes(c.getParameterTypes());
+        long bestMatchDistance = Long.MAX_VALUE;
+        for (int i = 0; i < constructors.constructors.length; i++) {
+            ParameterTypes cParamTypes = constructors.parameterTypes[i];
             if (cParamTypes.isValidMethod(argTypes)) {
-                if (bestMatch == null || isMoreSpecific(cParamTypes, bestMatchParamTypes, argTypes)) {
-                    bestMatch = c;
-                    bestMatchParamTypes = cParamTypes;
+                long distance = MetaClassHelper.calculateParameterDistance(argTypes, cParamTypes);
+                if (bestMatch == null || distance < bestMatchDistance) {
+                    bestMatch = constructors.constructors[i];
+                    bestMatchDistance = distance;
                 }
             }
         }
@@ -55,9 +95,9 @@ public class CallSiteSelector {
         // Only check for the magic Map constructor if we haven't already found a real constructor.
         // Also note that this logic is derived from how Groovy itself decides to use the magic Map constructor, at
         // MetaClassImpl#invokeConstructor(Class, Object[]).
-        if (args.length == 1 && args[0] instanceof Map) {
-            for (Constructor<?> c : constructors) {
-                if (c.getParameterTypes().length == 0 && !c.isVarArgs()) {
+        if (argTypes.length == 1 && argTypes[0] != null && Map.class.isAssignableFrom(argTypes[0])) {
+            for (Constructor<?> c : constructors.constructors) {
+                if (c.getParameterCount() == 0 && !c.isVarArgs()) {
                     return c;
                 }
             }
@@ -66,6 +106,31 @@ public class CallSiteSelector {
         return null;
     }
 
+    /**
+     * Only cache resolutions whose argument types live at least as long as the declaring class, as the cache would otherwise keep them from being unloaded.
+     */
+    public static boolean isCacheable(Class<?> type, Class<?>[] argTypes) {
+        ClassLoader typeLoader = type.getClassLoader();
+        for (Class<?> argType : argTypes) {
+            if (argType != null && !isAncestor(argType.getClassLoader(), typeLoader)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAncestor(ClassLoader ancestor, ClassLoader loader) {
+        if (ancestor == null) {
+            return true;
+        }
+        for (ClassLoader current = loader; current != null; current = current.getParent()) {
+            if (current == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static boolean isMoreSpecific(ParameterTypes paramsForCandidate, ParameterTypes paramsForBaseline, Class<?>[] argTypes) {
         long candidateDistance = MetaClassHelper.calculateParameterDistance(argTypes, paramsForCandidate);
         long currentBestDistance = MetaClassHelper.calculateParameterDistance(argTypes, paramsForBaseline);
@@ -83,15 +148,15 @@ public class CallSiteSelector {
         return false;
     }
 
-    private static boolean isIllegalCallToSyntheticConstructor(Constructor<?> c, Object[] args) {
+    private static boolean isIllegalCallToSyntheticConstructor(Constructor<?> c, Class<?>[] argTypes) {
         Class<?>[] parameterTypes = c.getParameterTypes();
         for (int i = 0; i < parameterTypes.length; i++) {
             Class<?> parameterType = parameterTypes[i];
-            Object arg = args[i];
-            if (parameterType == SuperConstructorWrapper.class && (arg == null || arg.getClass() != SuperConstructorWrapper.class)) {
+            Class<?> argType = i < argTypes.length ? argTypes[i] : null;
+            if (parameterType == SuperConstructorWrapper.class && argType != SuperConstructorWrapper.class) {
                 return true;
             }
-            if (parameterType == ThisConstructorWrapper.class && (arg == null || arg.getClass() != ThisConstructorWrapper.class)) {
+            if (parameterType == ThisConstructorWrapper.class && argType != ThisConstructorWrapper.class) {
                 return true;
             }
         }
@@ -103,10 +168,14 @@ public class CallSiteSelector {
     }
 
     private static String printArgumentTypes(Object[] args) {
+        return printArgumentTypes(MetaClassHelper.convertToTypeArray(args));
+    }
+
+    private static String printArgumentTypes(Class<?>[] argTypes) {
         StringBuilder b = new StringBuilder();
-        for (Object arg : args) {
+        for (Class<?> argType : argTypes) {
             b.append(' ');
-            b.append(getName(arg));
+            b.append(argType == null ? "null" : getName(argType));
         }
         return b.toString();
     }
@@ -126,4 +195,57 @@ public class CallSiteSelector {
 
     private CallSiteSelector() { }
 
+    private static class Constructors {
+
+        private final Constructor<?>[] constructors;
+        private final ParameterTypes[] parameterTypes;
+        private final ConcurrentMap<ArgumentTypes, Resolution> resolutions = new ConcurrentHashMap<>();
+
+        private Constructors(Class<?> type) {
+            this.constructors = type.getDeclaredConstructors();
+            this.parameterTypes = new ParameterTypes[this.constructors.length];
+            for (int i = 0; i < this.constructors.length; i++) {
+                this.parameterTypes[i] = new ParameterTypes(this.constructors[i].getParameterTypes());
+            }
+        }
+
+    }
+
+    /**
+     * Either the constructor that will be invoked, or why the call is rejected.
+     */
+    private static class Resolution {
+
+        private final Constructor<?> constructor;
+        private final String error;
+
+        private Resolution(Constructor<?> constructor, String error) {
+            this.constructor = constructor;
+            this.error = error;
+        }
+
+    }
+
+    private static class ArgumentTypes {
+
+        private final Class<?>[] types;
+        private final int hashCode;
+
+        private ArgumentTypes(Class<?>[] types) {
+            this.types = types;
+            this.hashCode = Arrays.hashCode(types);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ArgumentTypes && Arrays.equals(this.types, ((ArgumentTypes) obj).types);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
 }
@@ -0,0 +1,107 @@
+package com.cleanroommc.groovysandbox.interception.bubblewrap;
+
+import com.cleanroommc.groovysandbox.interception.CallInterceptor;
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers which shapes of instance method calls are allowed by every registered {@link CallInterceptor} ahead of time, see {@link CallInterceptor#isAlwaysAllowed}.
+ * <p>
+ * Verdicts are held by receiver type, and go stale as soon as the registered interceptors or the bans change.
+ */
+final class CallVerdicts {
+
+    private static final ClassValue<ConcurrentMap<CallShape, Verdict>> VERDICTS = new ClassValue<ConcurrentMap<CallShape, Verdict>>() {
+        @Override
+        protected ConcurrentMap<CallShape, Verdict> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * @return false if no verdict can be cached, in which case calls have to go through the interceptors anyway
+     */
+    static boolean isEnabled() {
+        return InterceptionManager.INSTANCE.hasCacheableVerdicts();
+    }
+
+    static boolean isAlwaysAllowed(Class<?> receiverType, String method, Class<?>[] argTypes) {
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        // Read before asking, so that verdicts given while the interceptors change are never taken as current
+        int version = manager.getVersion();
+        int banVersion = manager.getBanVersion();
+        if (!manager.hasCacheableVerdicts()) {
+            return false;
+        }
+        CallShape shape = new CallShape(method, argTypes);
+        ConcurrentMap<CallShape, Verdict> verdicts = VERDICTS.get(receiverType);
+        Verdict verdict = verdicts.get(shape);
+        if (verdict == null || !verdict.isCurrent(version, banVersion)) {
+            verdict = new Verdict(version, banVersion, manager.isAlwaysAllowed(receiverType, method, argTypes));
+            if (CallSiteSelector.isCacheable(receiverType, argTypes)) {
+                verdicts.put(shape, verdict);
+            }
+        }
+        return verdict.allowed;
+    }
+
+    /**
+     * @return true if verdicts given at these versions still hold
+     */
+    static boolean isCurrent(int version, int banVersion) {
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        return manager.getVersion() == version && manager.getBanVersion() == banVersion;
+    }
+
+    private CallVerdicts() { }
+
+    private static class Verdict {
+
+        private final int version;
+        private final int banVersion;
+        private final boolean allowed;
+
+        private Verdict(int version, int banVersion, boolean allowed) {
+            this.version = version;
+            this.banVersion = banVersion;
+            this.allowed = allowed;
+        }
+
+        private boolean isCurrent(int version, int banVersion) {
+            return this.version == version && this.banVersion == banVersion;
+        }
+
+    }
+
+    private static class CallShape {
+
+        private final String method;
+        private final Class<?>[] argTypes;
+        private final int hashCode;
+
+        private CallShape(String method, Class<?>[] argTypes) {
+            this.method = method;
+            this.argTypes = argTypes;
+            this.hashCode = 31 * method.hashCode() + Arrays.hashCode(argTypes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CallShape)) {
+                return false;
+            }
+            CallShape other = (CallShape) obj;
+            return this.method.equals(other.method) && Arrays.equals(this.argTypes, other.argTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.cleanroommc.groovysandbox.interception.bubblewrap;
+
+import com.cleanroommc.groovysandbox.interception.CallInterceptor;
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import groovy.lang.GroovySystem;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaClassImpl;
+import groovy.lang.MetaMethod;
+import org.codehaus.groovy.runtime.BytecodeInterface8;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether calls resolved at compile-time may be made as they are rather than wrapped, see {@link Bubblewrap#isUnobservedCall0}.
+ * <p>
+ * That is only sound while nobody could tell the difference: every {@link CallInterceptor} of the kind of call has to allow its shape ahead of time,
+ * the metaclass of the receiver type has to be the standard one, and no category may be in use.
+ * Verdicts are remembered by site, and go stale as soon as the registered interceptors, the bans or any metaclass change.
+ */
+final class DirectCalls {
+
+    private static final AtomicInteger META_CLASS_VERSION = new AtomicInteger();
+
+    static {
+        GroovySystem.getMetaClassRegistry().addMetaClassRegistryChangeEventListener(event -> META_CLASS_VERSION.incrementAndGet());
+    }
+
+    /**
+     * @return the number of times any metaclass changed so far
+     */
+    static int metaClassVersion() {
+        return META_CLASS_VERSION.get();
+    }
+
+    /**
+     * @return the verdict remembered for the site, or null if there is none that still holds
+     */
+    static Boolean verdict(SiteTable sites, int site) {
+        if (BytecodeInterface8.disabledStandardMetaClass() || GroovyCategorySupport.hasCategoryInCurrentThread()) {
+            return Boolean.FALSE;
+        }
+        Verdict verdict = sites.getVerdict(site);
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        if (verdict == null || !verdict.isCurrent(manager.getVersion(), manager.getBanVersion(), META_CLASS_VERSION.get())) {
+            return null;
+        }
+        return verdict.direct;
+    }
+
+    /**
+     * Works out the verdict for the site, and remembers it.
+     */
+    static boolean decide(SiteTable sites, int site, boolean isStatic, Class<?> receiverType, String method, Class<?>... argTypes) {
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        // Read before asking, so that verdicts given while anything changes are never taken as current
+        int version = manager.getVersion();
+        int banVersion = manager.getBanVersion();
+        int metaClassVersion = META_CLASS_VERSION.get();
+        boolean direct = isUnobserved(isStatic, receiverType, method, argTypes);
+        sites.setVerdict(site, new Verdict(version, banVersion, metaClassVersion, direct));
+        return direct;
+    }
+
+    private static boolean isUnobserved(boolean isStatic, Class<?> receiverType, String method, Class<?>[] argTypes) {
+        MetaClass metaClass = InvokerHelper.getMetaClass(receiverType);
+        if (metaClass.getClass() != MetaClassImpl.class) {
+            return false;
+        }
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        if (!isStatic) {
+            return manager.isAlwaysAllowed(receiverType, method, argTypes);
+        }
+        // Class receivers only make static calls if a static method is there to be called, see Bubblewrap#wrapCall
+        MetaMethod metaMethod = metaClass.getStaticMetaMethod(method, argTypes);
+        return metaMethod != null && metaMethod.isStatic() && metaMethod.getDeclaringClass().getTheClass() != Class.class &&
+                manager.isAlwaysAllowedStatic(receiverType, method, argTypes);
+    }
+
+    private DirectCalls() { }
+
+    static class Verdict {
+
+        private final int version;
+        private final int banVersion;
+        private final int metaClassVersion;
+        private final boolean direct;
+
+        private Verdict(int version, int banVersion, int metaClassVersion, boolean direct) {
+            this.version = version;
+            this.banVersion = banVersion;
+            this.metaClassVersion = metaClassVersion;
+            this.direct = direct;
+        }
+
+        private boolean isCurrent(int version, int banVersion, int metaClassVersion) {
+            return this.version == version && this.banVersion == banVersion && this.metaClassVersion == metaClassVersion;
+        }
+
+    }
+
+}
@@ -0,0 +1,297 @@
+package com.cleanroommc.groovysandbox.interception.bubblewrap;
+
+import com.cleanroommc.groovysandbox.interception.CallInterceptor;
+import com.cleanroommc.groovysandbox.interception.InterceptionKind;
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import com.cleanroommc.groovysandbox.util.Operators;
+import groovy.lang.GroovySystem;
+import groovy.lang.MetaClassImpl;
+import org.codehaus.groovy.runtime.BytecodeInterface8;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
+import org.codehaus.groovy.runtime.typehandling.NumberMath;
+import org.codehaus.groovy.syntax.Types;
+
+import java.math.BigDecimal;
+
+/**
+ * Runs binary operators and comparisons between {@link Integer}s, {@link Long}s, {@link Double}s, {@link BigDecimal}s and {@link String}s directly,
+ * rather than as the method calls they are in Groovy.
+ * <p>
+ * Results are worked out just like the Groovy methods behind the operators would, which is only sound while nobody could tell the difference:
+ * no {@link CallInterceptor} may see the method call for the operator and operand types, see {@link CallVerdicts},
+ * and the metaclasses of those types have to be the standard ones, with no category in use.
+ */
+final class FastOperators {
+
+    /**
+     * Result of the fast paths when the operation has to be made as a method call after all.
+     */
+    static final Object UNHANDLED = new Object();
+
+    private static final int INTEGER = 0, LONG = 1, DOUBLE = 2, BIG_DECIMAL = 3, STRING = 4, OTHER = -1;
+    private static final int TYPES = 5;
+    private static final Class<?>[] TYPE_CLASSES = { Integer.class, Long.class, Double.class, BigDecimal.class, String.class };
+
+    /**
+     * Dense indices of the operators with a fast path, in their order in {@link Types}.
+     */
+    private static final int[] OPERATORS = {
+            Types.COMPARE_NOT_EQUAL, Types.COMPARE_EQUAL, Types.COMPARE_LESS_THAN, Types.COMPARE_LESS_THAN_EQUAL,
+            Types.COMPARE_GREATER_THAN, Types.COMPARE_GREATER_THAN_EQUAL, Types.COMPARE_TO,
+            Types.PLUS, Types.MINUS, Types.MULTIPLY, Types.DIVIDE, Types.MOD,
+            Types.BITWISE_OR, Types.BITWISE_AND, Types.BITWISE_XOR,
+            Types.LEFT_SHIFT, Types.RIGHT_SHIFT, Types.RIGHT_SHIFT_UNSIGNED,
+            Types.PLUS_PLUS, Types.MINUS_MINUS };
+
+    /**
+     * Whether the operation can skip the interceptors, by operator index then operand types, the second one being {@link #INTEGER} for increments.
+     */
+    private static final Verdict[] VERDICTS = new Verdict[OPERATORS.length * TYPES * TYPES];
+
+    private static volatile boolean standardMetaClasses = true;
+
+    static {
+        GroovySystem.getMetaClassRegistry().addMetaClassRegistryChangeEventListener(event -> {
+            if (typeOf(event.getClassToUpdate()) != OTHER) {
+                standardMetaClasses = false;
+            }
+        });
+        for (Class<?> type : TYPE_CLASSES) {
+            if (InvokerHelper.getMetaClass(type).getClass() != MetaClassImpl.class) {
+                standardMetaClasses = false;
+            }
+        }
+    }
+
+    /**
+     * @return the result of {@code lhs operator rhs}, or {@link #UNHANDLED}
+     */
+    static Object binaryOperation(Object lhs, int operator, Object rhs) {
+        int lhsType = typeOf(lhs), rhsType = typeOf(rhs);
+        if (lhsType == OTHER || rhsType == OTHER || !isUnobserved(lhs.getClass(), lhsType, operator, rhs.getClass(), rhsType)) {
+            return UNHANDLED;
+        }
+        return binaryOperation(lhs, lhsType, operator, rhs, rhsType);
+    }
+
+    private static Object binaryOperation(Object lhs, int lhsType, int operator, Object rhs, int rhsType) {
+        if (lhsType == STRING || rhsType == STRING) {
+            // Only concatenation is as simple as it looks
+            return lhsType == STRING && rhsType == STRING && operator == Types.PLUS ? (String) lhs + rhs : UNHANDLED;
+        }
+        Number left = (Number) lhs, right = (Number) rhs;
+        if (lhsType == INTEGER && rhsType == INTEGER) {
+            // Overflows just like IntegerMath
+            int l = left.intValue(), r = right.intValue();
+            switch (operator) {
+                case Types.PLUS: return l + r;
+                case Types.MINUS: return l - r;
+                case Types.MULTIPLY: return l * r;
+            }
+        } else if (lhsType == LONG && rhsType == LONG) {
+            long l = left.longValue(), r = right.longValue();
+            switch (operator) {
+                case Types.PLUS: return l + r;
+                case Types.MINUS: return l - r;
+                case Types.MULTIPLY: return l * r;
+            }
+        }
+        switch (operator) {
+            case Types.PLUS: return NumberMath.add(left, right);
+            case Types.MINUS: return NumberMath.subtract(left, right);
+            case Types.MULTIPLY: return NumberMath.multiply(left, right);
+            case Types.DIVIDE: return NumberMath.divide(left, right);
+            case Types.MOD: return NumberMath.mod(left, right);
+        }
+        if (!isIntegral(lhsType) || !isIntegral(rhsType)) {
+            return UNHANDLED;
+        }
+        switch (operator) {
+            case Types.BITWISE_OR: return NumberMath.or(left, right);
+            case Types.BITWISE_AND: return NumberMath.and(left, right);
+            case Types.BITWISE_XOR: return NumberMath.xor(left, right);
+            case Types.LEFT_SHIFT: return NumberMath.leftShift(left, right);
+            case Types.RIGHT_SHIFT: return NumberMath.rightShift(left, right);
+            case Types.RIGHT_SHIFT_UNSIGNED: return NumberMath.rightShiftUnsigned(left, right);
+            default: return UNHANDLED;
+        }
+    }
+
+    /**
+     * @return the result of the comparison, or {@link #UNHANDLED}
+     */
+    static Object comparison(Object lhs, int operator, Object rhs) {
+        int lhsType = typeOf(lhs), rhsType = typeOf(rhs);
+        if (lhsType == OTHER || rhsType == OTHER || !isUnobserved(lhs.getClass(), lhsType, operator, rhs.getClass(), rhsType)) {
+            return UNHANDLED;
+        }
+        return comparison(lhs, lhsType, operator, rhs, rhsType);
+    }
+
+    private static Object comparison(Object lhs, int lhsType, int operator, Object rhs, int rhsType) {
+        if ((lhsType == INTEGER || lhsType == LONG) && (rhsType == INTEGER || rhsType == LONG)) {
+            long l = ((Number) lhs).longValue(), r = ((Number) rhs).longValue();
+            switch (operator) {
+                case Types.COMPARE_EQUAL: return l == r;
+                case Types.COMPARE_NOT_EQUAL: return l != r;
+                case Types.COMPARE_LESS_THAN: return l < r;
+                case Types.COMPARE_LESS_THAN_EQUAL: return l <= r;
+                case Types.COMPARE_GREATER_THAN: return l > r;
+                case Types.COMPARE_GREATER_THAN_EQUAL: return l >= r;
+            }
+        }
+        return compare(lhs, operator, rhs);
+    }
+
+    /**
+     * Works out an operator between constants at compile-time, the same way as when it runs unobserved.
+     * Whether it does run unobserved is only known once it runs, see {@link Bubblewrap#fold}.
+     *
+     * @return the result of {@code lhs operator rhs}, or {@link #UNHANDLED}
+     */
+    static Object fold(Object lhs, int operator, Object rhs) {
+        int lhsType = typeOf(lhs), rhsType = typeOf(rhs);
+        if (lhsType == OTHER || rhsType == OTHER || indexOf(operator) < 0 || operator == Types.PLUS_PLUS || operator == Types.MINUS_MINUS) {
+            return UNHANDLED;
+        }
+        try {
+            // Every comparison with a fast path comes before the arithmetic operators in Types
+            return operator <= Types.COMPARE_TO ? comparison(lhs, lhsType, operator, rhs, rhsType) : binaryOperation(lhs, lhsType, operator, rhs, rhsType);
+        } catch (ArithmeticException e) {
+            // Such as a division by zero, left to throw when it runs
+            return UNHANDLED;
+        }
+    }
+
+    /**
+     * @param operator {@link Types#PLUS_PLUS} for {@code next()}, {@link Types#MINUS_MINUS} for {@code previous()}
+     * @return the number after or before the value, or {@link #UNHANDLED}
+     */
+    static Object increment(Object value, int operator) {
+        int type = typeOf(value);
+        // Strings have a next() of their own
+        if (type == OTHER || type == STRING || !isUnobserved(value.getClass(), type, operator, null, INTEGER)) {
+            return UNHANDLED;
+        }
+        boolean up = operator == Types.PLUS_PLUS;
+        // As DefaultGroovyMethods.next(Number) and previous(Number) do, adding or subtracting an Integer one
+        switch (type) {
+            case INTEGER: return up ? (Integer) value + 1 : (Integer) value - 1;
+            case LONG: return up ? (Long) value + 1 : (Long) value - 1;
+            default: return up ? NumberMath.add((Number) value, 1) : NumberMath.subtract((Number) value, 1);
+        }
+    }
+
+    /**
+     * @param rhsClass null for {@link Types#PLUS_PLUS} and {@link Types#MINUS_MINUS}
+     * @return true if the operation between operands of these classes could be run directly
+     */
+    static boolean isUnobserved(int operator, Class<?> lhsClass, Class<?> rhsClass) {
+        int lhsType = typeOf(lhsClass), rhsType = rhsClass == null ? INTEGER : typeOf(rhsClass);
+        return lhsType != OTHER && rhsType != OTHER && isUnobserved(lhsClass, lhsType, operator, rhsClass, rhsType);
+    }
+
+    /**
+     * Compares through {@link ScriptBytecodeAdapter}, as compiled Groovy code does, without checking anything.
+     */
+    static Object compare(Object lhs, int operator, Object rhs) {
+        switch (operator) {
+            case Types.COMPARE_EQUAL: return ScriptBytecodeAdapter.compareEqual(lhs, rhs);
+            case Types.COMPARE_NOT_EQUAL: return ScriptBytecodeAdapter.compareNotEqual(lhs, rhs);
+            case Types.COMPARE_LESS_THAN: return ScriptBytecodeAdapter.compareLessThan(lhs, rhs);
+            case Types.COMPARE_LESS_THAN_EQUAL: return ScriptBytecodeAdapter.compareLessThanEqual(lhs, rhs);
+            case Types.COMPARE_GREATER_THAN: return ScriptBytecodeAdapter.compareGreaterThan(lhs, rhs);
+            case Types.COMPARE_GREATER_THAN_EQUAL: return ScriptBytecodeAdapter.compareGreaterThanEqual(lhs, rhs);
+            case Types.COMPARE_TO: return ScriptBytecodeAdapter.compareTo(lhs, rhs);
+            default: throw new IllegalArgumentException("" + operator);
+        }
+    }
+
+    /**
+     * @param rhsClass null for increments
+     */
+    private static boolean isUnobserved(Class<?> lhsClass, int lhsType, int operator, Class<?> rhsClass, int rhsType) {
+        if (!standardMetaClasses || BytecodeInterface8.disabledStandardMetaClass() || GroovyCategorySupport.hasCategoryInCurrentThread()) {
+            return false;
+        }
+        int operatorIndex = indexOf(operator);
+        if (operatorIndex < 0) {
+            return false;
+        }
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        // Read before asking, so that verdicts given while the interceptors change are never taken as current
+        int version = manager.getVersion();
+        int banVersion = manager.getBanVersion();
+        int index = (operatorIndex * TYPES + lhsType) * TYPES + rhsType;
+        Verdict verdict = VERDICTS[index];
+        if (verdict == null || !verdict.isCurrent(version, banVersion)) {
+            VERDICTS[index] = verdict = new Verdict(version, banVersion, isUnobserved(lhsClass, operator, rhsClass));
+        }
+        return verdict.unobserved;
+    }
+
+    private static boolean isUnobserved(Class<?> lhsType, int operator, Class<?> rhsType) {
+        boolean intercepted = false;
+        for (CallInterceptor callInterceptor : InterceptionManager.INSTANCE.getCallInterceptors()) {
+            intercepted |= InterceptionKind.METHOD_CALL.isHandledBy(callInterceptor);
+        }
+        if (!intercepted) {
+            return true;
+        }
+        if (rhsType == null) {
+            return CallVerdicts.isAlwaysAllowed(lhsType, operator == Types.PLUS_PLUS ? "next" : "previous", new Class<?>[0]);
+        }
+        // Comparisons are shown to interceptors as the compareTo call ScriptBytecodeAdapter makes for Comparables, which all the types are
+        String method = Operators.isComparisionOperator(operator) ? "compareTo" : Operators.binaryOperatorMethods(operator);
+        return CallVerdicts.isAlwaysAllowed(lhsType, method, new Class<?>[] { rhsType });
+    }
+
+    private static int indexOf(int operator) {
+        for (int i = 0; i < OPERATORS.length; i++) {
+            if (OPERATORS[i] == operator) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int typeOf(Object operand) {
+        return operand == null ? OTHER : typeOf(operand.getClass());
+    }
+
+    private static int typeOf(Class<?> type) {
+        for (int i = 0; i < TYPE_CLASSES.length; i++) {
+            if (TYPE_CLASSES[i] == type) {
+                return i;
+            }
+        }
+        return OTHER;
+    }
+
+    private static boolean isIntegral(int type) {
+        return type == INTEGER || type == LONG;
+    }
+
+    private FastOperators() { }
+
+    private static class Verdict {
+
+        private final int version;
+        private final int banVersion;
+        private final boolean unobserved;
+
+        private Verdict(int version, int banVersion, boolean unobserved) {
+            this.version = version;
+            this.banVersion = banVersion;
+            this.unobserved = unobserved;
+        }
+
+        private boolean isCurrent(int version, int banVersion) {
+            return this.version == version && this.banVersion == banVersion;
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.cleanroommc.groovysandbox.interception.bubblewrap;
+
+import com.cleanroommc.groovysandbox.interception.InterceptionManager;
+import groovy.lang.Closure;
+import groovy.lang.MetaClassImpl;
+import org.codehaus.groovy.runtime.BytecodeInterface8;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+/**
+ * Verdict on a call a loop makes on a receiver that stays the same throughout, made as the loop starts, see {@link Bubblewrap#guardLoopCall}.
+ * <p>
+ * With the receiver settled, only the classes of the arguments are left to compare on each iteration, along with whether the registered interceptors,
+ * the bans or any metaclass changed since. The verdict for the classes last seen is kept, so a loop passing arguments of the same classes works it out once.
+ * While it holds, the call is made as it is rather than wrapped, which is only sound while nobody could tell the difference, just like {@link CallVerdicts}.
+ */
+public final class LoopGuard {
+
+    private final Object receiver;
+    private final String method;
+
+    /**
+     * Classes of the arguments the verdict was made for, or null if there is no verdict yet.
+     */
+    private Class<?>[] argTypes;
+    private int version;
+    private int banVersion;
+    private int metaClassVersion;
+    private boolean direct;
+
+    LoopGuard(Object receiver, String method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    boolean holds0() {
+        if (isWatched()) {
+            return false;
+        }
+        return this.argTypes != null && isCurrent() ? this.direct : decide(new Class<?>[0]);
+    }
+
+    boolean holds1(Object arg1) {
+        if (isWatched()) {
+            return false;
+        }
+        Class<?>[] argTypes = this.argTypes;
+        if (argTypes != null && argTypes[0] == Bubblewrap.argType(arg1) && isCurrent()) {
+            return this.direct;
+        }
+        return decide(new Class<?>[] { Bubblewrap.argType(arg1) });
+    }
+
+    boolean holds2(Object arg1, Object arg2) {
+        if (isWatched()) {
+            return false;
+        }
+        Class<?>[] argTypes = this.argTypes;
+        if (argTypes != null && argTypes[0] == Bubblewrap.argType(arg1) && argTypes[1] == Bubblewrap.argType(arg2) && isCurrent()) {
+            return this.direct;
+        }
+        return decide(new Class<?>[] { Bubblewrap.argType(arg1), Bubblewrap.argType(arg2) });
+    }
+
+    boolean holds3(Object arg1, Object arg2, Object arg3) {
+        if (isWatched()) {
+            return false;
+        }
+        Class<?>[] argTypes = this.argTypes;
+        if (argTypes != null && argTypes[0] == Bubblewrap.argType(arg1) && argTypes[1] == Bubblewrap.argType(arg2) && argTypes[2] == Bubblewrap.argType(arg3) &&
+                isCurrent()) {
+            return this.direct;
+        }
+        return decide(new Class<?>[] { Bubblewrap.argType(arg1), Bubblewrap.argType(arg2), Bubblewrap.argType(arg3) });
+    }
+
+    boolean holds4(Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (isWatched()) {
+            return false;
+        }
+        Class<?>[] argTypes = this.argTypes;
+        if (argTypes != null && argTypes[0] == Bubblewrap.argType(arg1) && argTypes[1] == Bubblewrap.argType(arg2) && argTypes[2] == Bubblewrap.argType(arg3) &&
+                argTypes[3] == Bubblewrap.argType(arg4) && isCurrent()) {
+            return this.direct;
+        }
+        return decide(new Class<?>[] { Bubblewrap.argType(arg1), Bubblewrap.argType(arg2), Bubblewrap.argType(arg3), Bubblewrap.argType(arg4) });
+    }
+
+    /**
+     * Categories and a disabled standard metaclass don't change any version, so they are checked on every call, like {@link DirectCalls#verdict} does.
+     */
+    private static boolean isWatched() {
+        return BytecodeInterface8.disabledStandardMetaClass() || GroovyCategorySupport.hasCategoryInCurrentThread();
+    }
+
+    private boolean isCurrent() {
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        return manager.getVersion() == this.version && manager.getBanVersion() == this.banVersion && DirectCalls.metaClassVersion() == this.metaClassVersion;
+    }
+
+    private boolean decide(Class<?>[] argTypes) {
+        InterceptionManager manager = InterceptionManager.INSTANCE;
+        // Read before asking, so that verdicts given while anything changes are never taken as current
+        this.version = manager.getVersion();
+        this.banVersion = manager.getBanVersion();
+        this.metaClassVersion = DirectCalls.metaClassVersion();
+        this.argTypes = argTypes;
+        this.direct = isUnobserved(argTypes);
+        return this.direct;
+    }
+
+    private boolean isUnobserved(Class<?>[] argTypes) {
+        Object receiver = this.receiver;
+        // Receivers wrapCall has more to check for, see Bubblewrap#isDirectCall
+        if (receiver == null || receiver instanceof Class || receiver instanceof Closure) {
+            return false;
+        }
+        // The metaclass of the receiver itself, which it may have of its own
+        if (InvokerHelper.getMetaClass(receiver).getClass() != MetaClassImpl.class) {
+            return false;
+        }
+        return CallVerdicts.isEnabled() && CallVerdicts.isAlwaysAllowed(receiver.getClass(), this.method, argTypes);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.cleanroommc.groovysandbox.interception.bubblewrap;
+
+import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
+
+/**
+ * What is known about each sandboxed site of a class at compile-time, so that sites only have to pass their index into the table.
+ * <p>
+ * Every transformed class holds its table in a static field, see {@link com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer}.
+ * The position of a site is only looked up once a call made from there is denied.
+ */
+public final class SiteTable {
+
+    public static final String FIELD_NAME = "$bubblewrap$sites";
+
+    public static final int FLAG_SAFE = 1;
+    public static final int FLAG_SPREAD = 1 << 1;
+
+    private final String source;
+    private final int[] lines;
+    private final int[] flags;
+    /**
+     * Verdicts on the calls resolved at compile-time, by site, see {@link DirectCalls}.
+     */
+    private final DirectCalls.Verdict[] verdicts;
+
+    public SiteTable(String source, int[] lines, int[] flags) {
+        this.source = source;
+        this.lines = lines;
+        this.flags = flags;
+        this.verdicts = new DirectCalls.Verdict[lines.length];
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getLine(int site) {
+        return this.lines[site];
+    }
+
+    public boolean isSafe(int site) {
+        return (this.flags[site] & FLAG_SAFE) != 0;
+    }
+
+    public boolean isSpread(int site) {
+        return (this.flags[site] & FLAG_SPREAD) != 0;
+    }
+
+    DirectCalls.Verdict getVerdict(int site) {
+        return this.verdicts[site];
+    }
+
+    void setVerdict(int site, DirectCalls.Verdict verdict) {
+        this.verdicts[site] = verdict;
+    }
+
+    /**
+     * @return the exception, pointing at the site if it doesn't already point at a site further in
+     */
+    SandboxSecurityException locate(SandboxSecurityException exception, int site) {
+        return exception.locate(this.source, this.lines[site]);
+    }
+
+}
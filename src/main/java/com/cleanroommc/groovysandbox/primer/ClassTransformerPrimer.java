@@ -1,6 +1,7 @@
 package com.cleanroommc.groovysandbox.primer;
 
 import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
+import com.cleanroommc.groovysandbox.transformer.BannedReferenceChecker;
 import com.cleanroommc.groovysandbox.transformer.GroovyClassTransformer;
 import org.codehaus.groovy.ast.ClassNode;
 import org.codehaus.groovy.classgen.GeneratorContext;
@@ -11,20 +12,35 @@ import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 
 public class ClassTransformerPrimer extends CompilationCustomizer {
 
-    public static final ClassTransformerPrimer PRIMER = new ClassTransformerPrimer();
+    public static final ClassTransformerPrimer PRIMER = new ClassTransformerPrimer(false);
+    /**
+     * Same as {@link #PRIMER}, but instance method calls are dispatched through invokedynamic call sites.
+     *
+     * @see com.cleanroommc.groovysandbox.interception.bubblewrap.BubblewrapCallSite
+     */
+    public static final ClassTransformerPrimer INDY_PRIMER = new ClassTransformerPrimer(true);
 
-    private final ThreadLocal<GroovyClassTransformer> transformer = ThreadLocal.withInitial(GroovyClassTransformer::new);
+    private final ThreadLocal<GroovyClassTransformer> transformer;
 
-    private ClassTransformerPrimer() {
+    private ClassTransformerPrimer(boolean invokeDynamic) {
         super(CompilePhase.CANONICALIZATION);
+        this.transformer = ThreadLocal.withInitial(() -> new GroovyClassTransformer(invokeDynamic));
     }
 
     @Override
     public void call(SourceUnit sourceUnit, GeneratorContext context, ClassNode classNode) throws CompilationFailedException {
+        if (!new BannedReferenceChecker(sourceUnit).check(classNode)) {
+            // Compilation fails with the violations of every class once all of them have been checked, no need to transform this one
+            return;
+        }
         GroovyClassTransformer transformer = this.transformer.get();
         transformer.setSourceUnit(sourceUnit);
         transformer.setClassNode(classNode);
-        transformer.visitClass(classNode);
+        try {
+            transformer.visitClass(classNode);
+        } finally {
+            transformer.reset();
+        }
         SandboxSecurityException sse = transformer.getAndClearException();
         if (sse != null) {
             // TODO: Decide if this RuntimeException should double-wrap a [CompilationFailedException (SandboxSecurityException)]
@@ -0,0 +1,65 @@
+package com.cleanroommc.groovysandbox.transformer;
+
+import org.codehaus.groovy.ast.CodeVisitorSupport;
+import org.codehaus.groovy.ast.expr.*;
+import org.codehaus.groovy.ast.stmt.ForStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.syntax.Types;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects the names of the variables a statement may assign to, declarations and closures within it included.
+ * Variables not among them hold the same value throughout the statement, unless closures share them.
+ */
+final class AssignedVariables extends CodeVisitorSupport {
+
+    /**
+     * @return the names of the variables the statement may assign to, including the variable of a for loop
+     */
+    static Set<String> of(Statement statement) {
+        AssignedVariables visitor = new AssignedVariables();
+        if (statement instanceof ForStatement) {
+            visitor.names.add(((ForStatement) statement).getVariable().getName());
+        }
+        statement.visit(visitor);
+        return visitor.names;
+    }
+
+    private final Set<String> names = new HashSet<>();
+
+    private AssignedVariables() { }
+
+    @Override
+    public void visitBinaryExpression(BinaryExpression expression) {
+        // Declarations included, with or without a value
+        if (expression instanceof DeclarationExpression || Types.ofType(expression.getOperation().getType(), Types.ASSIGNMENT_OPERATOR)) {
+            addTarget(expression.getLeftExpression());
+        }
+        super.visitBinaryExpression(expression);
+    }
+
+    @Override
+    public void visitPrefixExpression(PrefixExpression expression) {
+        addTarget(expression.getExpression());
+        super.visitPrefixExpression(expression);
+    }
+
+    @Override
+    public void visitPostfixExpression(PostfixExpression expression) {
+        addTarget(expression.getExpression());
+        super.visitPostfixExpression(expression);
+    }
+
+    private void addTarget(Expression target) {
+        if (target instanceof VariableExpression) {
+            this.names.add(((VariableExpression) target).getName());
+        } else if (target instanceof TupleExpression) {
+            for (Expression element : ((TupleExpression) target).getExpressions()) {
+                addTarget(element);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.cleanroommc.groovysandbox.transformer;
+
+import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
+import com.cleanroommc.groovysandbox.interception.EnforcingCallInterceptor;
+import org.codehaus.groovy.ast.*;
+import org.codehaus.groovy.ast.expr.*;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.syntax.SyntaxException;
+
+/**
+ * Rejects at compile-time what the sandbox would deny every time it runs, so that such scripts are never transformed, let alone run.
+ * <p>
+ * That is instantiating or extending a banned class, and reaching a static member of a banned class or a banned static member,
+ * be it through calls, method pointers, properties, attributes or static imports.
+ * Merely naming a banned type, as declared types, casts and plain imports do, is left to the checks at runtime,
+ * as instances of banned types such as {@link groovy.lang.Closure} are handed to scripts all the time.
+ * <p>
+ * What counts as banned is decided by {@link EnforcingCallInterceptor}, runtime classes it exempts included.
+ * <p>
+ * Violations are reported to the error collector of the source unit, which fails compilation with all of them once every class has been checked.
+ */
+public class BannedReferenceChecker extends ClassCodeVisitorSupport {
+
+    private final SourceUnit sourceUnit;
+    private ClassNode classNode;
+    private boolean violated = false;
+
+    public BannedReferenceChecker(SourceUnit sourceUnit) {
+        this.sourceUnit = sourceUnit;
+    }
+
+    /**
+     * Checks the class, along with the imports of its module if it is the first class of it.
+     *
+     * @return true if nothing banned was found
+     */
+    public boolean check(ClassNode classNode) {
+        this.classNode = classNode;
+        this.violated = false;
+        visitClass(classNode);
+        return !this.violated;
+    }
+
+    @Override
+    protected SourceUnit getSourceUnit() {
+        return sourceUnit;
+    }
+
+    @Override
+    public void visitClass(ClassNode node) {
+        // Scripts extend whatever base class the host configured, and classes Groovy generated whatever its runtime needs
+        if (!node.isScript() && node.getLineNumber() >= 0 && node.getSuperClass() != null && isBanned(node.getSuperClass())) {
+            reject("Extending " + node.getSuperClass().getName(), node);
+        }
+        super.visitClass(node);
+    }
+
+    @Override
+    public void visitImports(ModuleNode node) {
+        // Imports belong to the module, only check them along with its first class
+        if (node == null || node.getClasses().isEmpty() || node.getClasses().get(0) != this.classNode) {
+            return;
+        }
+        for (ImportNode importNode : node.getStaticImports().values()) {
+            ClassNode type = importNode.getType();
+            if (isBannedMethod(type, importNode.getFieldName()) || isBannedProperty(type, importNode.getFieldName())) {
+                reject("Importing " + type.getName() + "#" + importNode.getFieldName(), importNode);
+            }
+        }
+        for (ImportNode importNode : node.getStaticStarImports().values()) {
+            if (isBanned(importNode.getType())) {
+                reject("Importing " + importNode.getType().getName() + ".*", importNode);
+            }
+        }
+    }
+
+    @Override
+    public void visitProperty(PropertyNode node) {
+        // Its initial value is that of its field, which is visited on its own
+    }
+
+    @Override
+    protected void visitConstructorOrMethod(MethodNode node, boolean isConstructor) {
+        // Methods Groovy generated, like the main method of scripts, reach into its runtime freely
+        if (node.getLineNumber() < 0 && !node.isScriptBody()) {
+            return;
+        }
+        super.visitConstructorOrMethod(node, isConstructor);
+    }
+
+    @Override
+    public void visitConstructorCallExpression(ConstructorCallExpression call) {
+        if (!call.isSpecialCall() && isBanned(call.getType())) {
+            reject("Instantiating " + call.getType().getName(), call);
+        }
+        super.visitConstructorCallExpression(call);
+    }
+
+    @Override
+    public void visitMethodCallExpression(MethodCallExpression call) {
+        checkStaticMethod(call.getObjectExpression(), call.getMethodAsString(), call);
+        super.visitMethodCallExpression(call);
+    }
+
+    @Override
+    public void visitStaticMethodCallExpression(StaticMethodCallExpression call) {
+        if (isBannedMethod(call.getOwnerType(), call.getMethod())) {
+            reject("Calling " + call.getOwnerType().getName() + "#" + call.getMethod(), call);
+        }
+        super.visitStaticMethodCallExpression(call);
+    }
+
+    @Override
+    public void visitMethodPointerExpression(MethodPointerExpression expression) {
+        checkStaticMethod(expression.getExpression(), expression.getMethodName().getText(), expression);
+        super.visitMethodPointerExpression(expression);
+    }
+
+    @Override
+    public void visitPropertyExpression(PropertyExpression expression) {
+        Expression receiver = expression.getObjectExpression();
+        if (receiver instanceof ClassExpression && isBannedProperty(receiver.getType(), expression.getPropertyAsString())) {
+            reject("Accessing " + receiver.getType().getName() + "#" + expression.getPropertyAsString(), expression);
+        }
+        super.visitPropertyExpression(expression);
+    }
+
+    @Override
+    public void visitAttributeExpression(AttributeExpression expression) {
+        Expression receiver = expression.getObjectExpression();
+        if (receiver instanceof ClassExpression && isBannedField(receiver.getType(), expression.getPropertyAsString())) {
+            reject("Accessing " + receiver.getType().getName() + "#" + expression.getPropertyAsString(), expression);
+        }
+        super.visitAttributeExpression(expression);
+    }
+
+    private void checkStaticMethod(Expression receiver, String method, ASTNode node) {
+        if (receiver instanceof ClassExpression && isBannedMethod(receiver.getType(), method)) {
+            reject("Calling " + receiver.getType().getName() + "#" + method, node);
+        }
+    }
+
+    private static boolean isBannedMethod(ClassNode type, String method) {
+        if (method == null || !isLoaded(type)) {
+            return isBanned(type);
+        }
+        return !EnforcingCallInterceptor.isMethodPermitted(type.getTypeClass(), method);
+    }
+
+    private static boolean isBannedProperty(ClassNode type, String property) {
+        if (property == null || !isLoaded(type)) {
+            return isBanned(type);
+        }
+        return !EnforcingCallInterceptor.isPropertyPermitted(type.getTypeClass(), property);
+    }
+
+    private static boolean isBannedField(ClassNode type, String field) {
+        if (field == null || !isLoaded(type)) {
+            return isBanned(type);
+        }
+        return !EnforcingCallInterceptor.isFieldPermitted(type.getTypeClass(), field);
+    }
+
+    private static boolean isBanned(ClassNode type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (ClassHelper.isPrimitiveType(type)) {
+            return false;
+        }
+        return isLoaded(type) ? !EnforcingCallInterceptor.isClassPermitted(type.getTypeClass()) : !EnforcingCallInterceptor.isClassPermitted(type.getName());
+    }
+
+    /**
+     * Members can only have been banned on classes that exist outside of the scripts being compiled.
+     */
+    private static boolean isLoaded(ClassNode type) {
+        return !type.isPrimaryClassNode() && type.isResolved();
+    }
+
+    private void reject(String what, ASTNode node) {
+        this.violated = true;
+        SandboxSecurityException exception = SandboxSecurityException.format(what);
+        this.sourceUnit.getErrorCollector().addErrorAndContinue(
+                new SyntaxException(exception.getMessage(), exception, node.getLineNumber(), node.getColumnNumber()), this.sourceUnit);
+    }
+
+}
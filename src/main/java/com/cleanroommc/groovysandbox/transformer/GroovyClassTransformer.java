@@ -2,20 +2,29 @@ package com.cleanroommc.groovysandbox.transformer;
 
 import com.cleanroommc.groovysandbox.exception.SandboxSecurityException;
 import com.cleanroommc.groovysandbox.interception.bubblewrap.Bubblewrap;
+import com.cleanroommc.groovysandbox.interception.bubblewrap.BubblewrapCallSite;
 import com.cleanroommc.groovysandbox.interception.bubblewrap.BubblewrappedMethodClosure;
 import com.cleanroommc.groovysandbox.interception.bubblewrap.Bubblewraps;
+import com.cleanroommc.groovysandbox.interception.bubblewrap.LoopGuard;
+import com.cleanroommc.groovysandbox.interception.bubblewrap.SiteTable;
 import com.cleanroommc.groovysandbox.util.ClosureSupport;
 import com.cleanroommc.groovysandbox.util.Operators;
 import groovy.lang.Script;
+import groovyjarjarasm.asm.Handle;
+import groovyjarjarasm.asm.MethodVisitor;
+import groovyjarjarasm.asm.Opcodes;
 import org.codehaus.groovy.ast.*;
 import org.codehaus.groovy.ast.expr.*;
 import org.codehaus.groovy.ast.stmt.*;
+import org.codehaus.groovy.classgen.BytecodeInstruction;
+import org.codehaus.groovy.classgen.BytecodeSequence;
 import org.codehaus.groovy.control.SourceUnit;
 import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
 import org.codehaus.groovy.syntax.Token;
 import org.codehaus.groovy.syntax.Types;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class GroovyClassTransformer extends ClassCodeExpressionTransformer implements VariableVisitor {
 
@@ -28,8 +37,62 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
     private static final ClassNode OBJECT_CLASS_NODE = new ClassNode(Object.class);
 
     private static final ClassNode BUBBLEWRAP = new ClassNode(Bubblewrap.class);
+    private static final ClassNode SITE_TABLE = new ClassNode(SiteTable.class);
+    private static final ClassNode LOOP_GUARD = new ClassNode(LoopGuard.class);
     private static final Token ASSIGNMENT_TOKEN = new Token(Types.ASSIGN, "=", -1, -1);
     private static final Token LEFT_SQUARE_BRACKET_TOKEN = new Token(Types.LEFT_SQUARE_BRACKET, "[", -1, -1);
+    private static final Token LOGICAL_AND_TOKEN = new Token(Types.LOGICAL_AND, "&&", -1, -1);
+
+    /**
+     * Operations guarded as a whole are emitted twice, those with more operators than this are only wrapped.
+     */
+    private static final int MAX_GUARDED_OPERATORS = 64;
+
+    private static final String CALL_SITE_METHOD_PREFIX = "$bubblewrap$call$";
+    private static final String LOOP_GUARD_PREFIX = "$bubblewrap$loop$";
+    private static final Parameter[] CALL_SITE_METHOD_PARAMETERS = {
+            new Parameter(ClassHelper.OBJECT_TYPE, "receiver"),
+            new Parameter(ClassHelper.OBJECT_TYPE.makeArray(), "args") };
+    private static final Handle CALL_SITE_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            BubblewrapCallSite.class.getName().replace('.', '/'),
+            BubblewrapCallSite.BOOTSTRAP_NAME,
+            BubblewrapCallSite.BOOTSTRAP_DESCRIPTOR,
+            false);
+
+    /**
+     * When set, instance method calls are dispatched through per-site invokedynamic instructions bootstrapped by
+     * {@link BubblewrapCallSite} rather than through {@link Bubblewrap#wrapCall}.
+     */
+    private final boolean invokeDynamic;
+    /**
+     * Per-site methods holding the invokedynamic instructions, added to the class once it has been visited.
+     */
+    private final List<MethodNode> callSiteMethods = new ArrayList<>();
+    /**
+     * Lines and {@link SiteTable} flags of the sites of the current class, by site id.
+     */
+    private final List<Expression> siteLines = new ArrayList<>();
+    private final List<Expression> siteFlags = new ArrayList<>();
+    /**
+     * Static field holding the {@link SiteTable} of the current class, only made once the class has a site.
+     */
+    private FieldNode siteTable;
+    /**
+     * Number of {@link LoopGuard}s declared in the current class, naming them apart.
+     */
+    private int loopGuards;
+    /**
+     * Loops directly within the block being visited, whose calls may be guarded ahead of them.
+     */
+    private final Set<Statement> hoistableLoops = Collections.newSetFromMap(new IdentityHashMap<>());
+    /**
+     * Declarations of the {@link LoopGuard}s of loops that have been visited, to be put ahead of them by their block.
+     */
+    private final Map<Statement, List<Statement>> loopGuardDeclarations = new IdentityHashMap<>();
+    /**
+     * The innermost loop whose calls may be guarded ahead of it, or null if there is none outside the current closure.
+     */
+    private LoopContext loop;
 
     private SourceUnit currentSourceUnit;
     private ClassNode currentClass;
@@ -38,12 +101,24 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
      */
     private VariableTracker variableTracker;
     private boolean withinClosure = false;
+    /**
+     * Unset while wrapping the operands of an operation that is guarded as a whole, whose guard covers theirs.
+     */
+    private boolean guardOperations = true;
     private SandboxSecurityException exception;
 
     // Cached Expression instances
     private ClassExpression classExpression;
     private ConstantExpression sourceUnitConstantExpression;
 
+    public GroovyClassTransformer() {
+        this(false);
+    }
+
+    public GroovyClassTransformer(boolean invokeDynamic) {
+        this.invokeDynamic = invokeDynamic;
+    }
+
     public void setSourceUnit(SourceUnit sourceUnit) {
         this.currentSourceUnit = sourceUnit;
         this.sourceUnitConstantExpression = new ConstantExpression(sourceUnit.getName());
@@ -54,6 +129,17 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         this.classExpression = new ClassExpression(classNode);
     }
 
+    /**
+     * Forgets the class and source unit last transformed, which would otherwise keep the loader that compiled them from being collected.
+     */
+    public void reset() {
+        this.currentSourceUnit = null;
+        this.sourceUnitConstantExpression = null;
+        this.currentClass = null;
+        this.classExpression = null;
+        this.loop = null;
+    }
+
     public SandboxSecurityException getAndClearException() {
         SandboxSecurityException exception = this.exception;
         this.exception = null;
@@ -75,15 +161,40 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         this.variableTracker = variableTracker;
     }
 
+    @Override
+    public void visitClass(ClassNode node) {
+        try {
+            super.visitClass(node);
+            // Cannot be added while visiting, as the method list of the class is being iterated over
+            for (MethodNode callSiteMethod : this.callSiteMethods) {
+                node.addMethod(callSiteMethod);
+            }
+            if (this.siteTable != null) {
+                this.siteTable.setInitialValueExpression(new ConstructorCallExpression(SITE_TABLE, new ArgumentListExpression(
+                        this.sourceUnitConstantExpression,
+                        new ArrayExpression(ClassHelper.int_TYPE, new ArrayList<>(this.siteLines)),
+                        new ArrayExpression(ClassHelper.int_TYPE, new ArrayList<>(this.siteFlags)))));
+                node.addField(this.siteTable);
+            }
+        } finally {
+            this.callSiteMethods.clear();
+            this.siteLines.clear();
+            this.siteFlags.clear();
+            this.siteTable = null;
+            this.loopGuards = 0;
+        }
+    }
+
     @Override
     public void visitMethod(MethodNode node) {
         if (this.currentClass == null) {
             this.currentClass = node.getDeclaringClass();
         }
         this.variableTracker = null;
+        this.loop = null;
         try (VariableTracker tracker = new VariableTracker(this)) {
             for (Parameter p : node.getParameters()) {
-                tracker.declare(p.getName());
+                tracker.declare(p);
             }
             super.visitMethod(node);
         }
@@ -98,23 +209,48 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
 
     @Override
     public void visitBlockStatement(BlockStatement block) {
+        List<Statement> statements = block.getStatements();
+        for (Statement statement : statements) {
+            if (statement instanceof LoopingStatement) {
+                this.hoistableLoops.add(statement);
+            }
+        }
         try (VariableTracker tracker = new VariableTracker(this)) {
             super.visitBlockStatement(block);
         }
+        if (this.loopGuardDeclarations.isEmpty()) {
+            return;
+        }
+        List<Statement> hoisted = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            List<Statement> declarations = this.loopGuardDeclarations.remove(statement);
+            if (declarations != null) {
+                hoisted.addAll(declarations);
+            }
+            hoisted.add(statement);
+        }
+        statements.clear();
+        statements.addAll(hoisted);
     }
 
     @Override
     public void visitDoWhileLoop(DoWhileStatement loop) {
-        try (VariableTracker tracker = new VariableTracker(this)) {
-            loop.getLoopBlock().visit(this);
-        }
-        try (VariableTracker tracker = new VariableTracker(this)) {
-            loop.setBooleanExpression((BooleanExpression) transform(loop.getBooleanExpression()));
+        LoopContext outer = enterLoop(loop);
+        try {
+            try (VariableTracker tracker = new VariableTracker(this)) {
+                loop.getLoopBlock().visit(this);
+            }
+            try (VariableTracker tracker = new VariableTracker(this)) {
+                loop.setBooleanExpression((BooleanExpression) transform(loop.getBooleanExpression()));
+            }
+        } finally {
+            exitLoop(loop, outer);
         }
     }
 
     @Override
     public void visitForLoop(ForStatement forLoop) {
+        LoopContext outer = enterLoop(forLoop);
         try (VariableTracker tracker = new VariableTracker(this)) {
             /*
                 Groovy appears to always treat the left-hand side of forLoop as a declaration.
@@ -140,6 +276,8 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
              */
             tracker.declare(forLoop.getVariable());
             super.visitForLoop(forLoop);
+        } finally {
+            exitLoop(forLoop, outer);
         }
     }
 
@@ -187,9 +325,32 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
 
     @Override
     public void visitWhileLoop(WhileStatement loop) {
+        LoopContext outer = enterLoop(loop);
         try (VariableTracker tracker = new VariableTracker(this)) {
             super.visitWhileLoop(loop);
+        } finally {
+            exitLoop(loop, outer);
+        }
+    }
+
+    /**
+     * Loops can only have declarations put ahead of them by the block they are directly within, others leave their calls to the loop around them.
+     *
+     * @return the loop context to restore once the loop has been visited
+     */
+    private LoopContext enterLoop(Statement loop) {
+        LoopContext outer = this.loop;
+        if (this.hoistableLoops.remove(loop)) {
+            this.loop = new LoopContext(AssignedVariables.of(loop));
         }
+        return outer;
+    }
+
+    private void exitLoop(Statement loop, LoopContext outer) {
+        if (this.loop != outer && !this.loop.declarations.isEmpty()) {
+            this.loopGuardDeclarations.put(loop, this.loop.declarations);
+        }
+        this.loop = outer;
     }
 
     @Override
@@ -220,8 +381,90 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         return new StaticMethodCallExpression(BUBBLEWRAP, name, arguments.length == 0 ? ArgumentListExpression.EMPTY_ARGUMENTS : new ArgumentListExpression(arguments));
     }
 
-    private Expression rerouteCall(Bubblewraps bubblewrap, Expression... arguments) {
-        return rerouteCall(bubblewrap.name(), arguments);
+    /**
+     * Reroute call to {@link Bubblewrap}, locating it through a new site of the current class.
+     * Its position is only looked up from the {@link SiteTable} once something done from there is denied.
+     * @param expression expression being rerouted
+     * @param arguments arguments to be passed to the rerouted method call, before those locating the site
+     * @return original or modified expression
+     */
+    private Expression rerouteSiteCall(String name, Expression expression, boolean safe, boolean spread, Expression... arguments) {
+        int site = addSite(expression, safe, spread);
+        Expression[] siteArguments = Arrays.copyOf(arguments, arguments.length + 2);
+        siteArguments[arguments.length] = new FieldExpression(this.siteTable);
+        siteArguments[arguments.length + 1] = new ConstantExpression(site, true);
+        return rerouteCall(name, siteArguments);
+    }
+
+    /**
+     * Adds a site of the current class to its {@link SiteTable}.
+     * @return index of the site
+     */
+    private int addSite(Expression expression, boolean safe, boolean spread) {
+        if (this.siteTable == null) {
+            this.siteTable = new FieldNode(SiteTable.FIELD_NAME, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                    SITE_TABLE, this.currentClass, null);
+        }
+        int flags = (safe ? SiteTable.FLAG_SAFE : 0) | (spread ? SiteTable.FLAG_SPREAD : 0);
+        this.siteLines.add(new ConstantExpression(expression.getLineNumber(), true));
+        this.siteFlags.add(new ConstantExpression(flags, true));
+        return this.siteLines.size() - 1;
+    }
+
+    private Expression rerouteSiteCall(Bubblewraps bubblewrap, Expression expression, boolean safe, boolean spread, Expression... arguments) {
+        return rerouteSiteCall(bubblewrap.name(), expression, safe, spread, arguments);
+    }
+
+    private Expression rerouteSiteCall(Bubblewraps bubblewrap, Expression expression, Expression... arguments) {
+        return rerouteSiteCall(bubblewrap.name(), expression, false, false, arguments);
+    }
+
+    /**
+     * Reroute a call to the entry point of {@link Bubblewrap} taking its arguments one by one if there are few enough, otherwise to the one taking them as an array.
+     * @param leading arguments to be passed to the rerouted method call before those of the call
+     * @param arguments arguments of the call, untransformed
+     */
+    private Expression rerouteCallWithArguments(Bubblewraps bubblewrap, Expression expression, boolean safe, boolean spread, Expression arguments, Expression... leading) {
+        List<Expression> fixedArguments = transformFixedArguments(arguments);
+        if (fixedArguments == null) {
+            Expression[] siteArguments = Arrays.copyOf(leading, leading.length + 1);
+            siteArguments[leading.length] = transformArguments(arguments);
+            return rerouteSiteCall(bubblewrap, expression, safe, spread, siteArguments);
+        }
+        List<Expression> siteArguments = new ArrayList<>(Arrays.asList(leading));
+        siteArguments.addAll(fixedArguments);
+        return rerouteSiteCall(bubblewrap.withArity(fixedArguments.size()), expression, safe, spread, siteArguments.toArray(new Expression[0]));
+    }
+
+    /**
+     * Reroute an instance method call to a new per-site method of the current class, which holds an invokedynamic instruction bootstrapped by {@link BubblewrapCallSite}.
+     * @param method name of the method being called
+     * @return call to the per-site method
+     */
+    private Expression rerouteCallSite(Expression receiver, String method, boolean safe, Expression arguments, int lineNumber) {
+        String source = this.currentSourceUnit.getName();
+        int flags = safe ? BubblewrapCallSite.FLAG_SAFE : 0;
+        BytecodeSequence code = new BytecodeSequence(new BytecodeInstruction() {
+            @Override
+            public void visit(MethodVisitor mv) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitInvokeDynamicInsn("call", BubblewrapCallSite.CALL_DESCRIPTOR, CALL_SITE_BOOTSTRAP, method, flags, source, lineNumber);
+                mv.visitInsn(Opcodes.ARETURN);
+            }
+        });
+        String name = CALL_SITE_METHOD_PREFIX + this.callSiteMethods.size();
+        this.callSiteMethods.add(new MethodNode(name, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, ClassHelper.OBJECT_TYPE, CALL_SITE_METHOD_PARAMETERS, ClassNode.EMPTY_ARRAY, code));
+        return new StaticMethodCallExpression(this.currentClass, name, new ArgumentListExpression(receiver, arguments));
+    }
+
+    private boolean canRerouteCallSite(MethodCallExpression callExpression, Expression methodExpression) {
+        return this.invokeDynamic &&
+                !callExpression.isSpreadSafe() &&
+                this.currentClass != null &&
+                !this.currentClass.isInterface() &&
+                methodExpression instanceof ConstantExpression &&
+                ((ConstantExpression) methodExpression).getValue() instanceof String;
     }
 
     private Expression transformPropertyExpression(PropertyExpression exp) {
@@ -250,59 +493,32 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
                 }
             }
             boolean old = withinClosure;
+            // Closures may be called anywhere, and any number of times
+            LoopContext oldLoop = this.loop;
             withinClosure = true;
+            this.loop = null;
             try {
                 closureExpression.getCode().visit(this);
             } finally {
                 withinClosure = old;
+                this.loop = oldLoop;
             }
         }
         if (expression instanceof MethodCallExpression) {
-            // lhs.foo(arg1, arg2) => wrapCall(lhs, "foo", arg1, arg2)
-            // lhs + rhs => lhs.plus(rhs)
-            // Integer.plus(Integer) => DefaultGroovyMethods.plus
-            // lhs || rhs => lhs.or(rhs)
-            MethodCallExpression callExpression = (MethodCallExpression) expression;
-            Expression objExpression;
-            if (this.withinClosure && callExpression.isImplicitThis() && !variableTracker.isIn(callExpression)) {
-                objExpression = ClosureSupport.getClosureSelfCall();
-            } else {
-                objExpression = transform(callExpression.getObjectExpression());
+            Expression hoisted = guardLoopCall((MethodCallExpression) expression);
+            if (hoisted != null) {
+                return hoisted;
             }
-            Expression methodExpression = transform(callExpression.getMethod());
-            Expression argumentExpression = transformArguments(callExpression.getArguments());
-            if (callExpression.getObjectExpression() instanceof VariableExpression && ((VariableExpression) callExpression.getObjectExpression()).isSuperExpression()) {
-                if (this.currentClass == null) {
-                    throw new IllegalStateException("Owning class not defined.");
-                }
-                return rerouteCall(Bubblewraps.wrapSuperCall,
-                        this.classExpression,
-                        objExpression,
-                        methodExpression,
-                        argumentExpression,
-                        this.sourceUnitConstantExpression,
-                        new ConstantExpression(expression.getLineNumber()));
-            }
-            return rerouteCall(Bubblewraps.wrapCall,
-                    objExpression,
-                    callExpression.isSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    callExpression.isSpreadSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    methodExpression,
-                    argumentExpression,
-                    this.sourceUnitConstantExpression,
-                    new ConstantExpression(expression.getLineNumber()));
+            return guardCall(expression, transformMethodCall((MethodCallExpression) expression));
         }
         if (expression instanceof StaticMethodCallExpression) {
             // Groovy doesn't use StaticMethodCallExpression as much as it could in compilation.
             // E.g: Math.max(...) results in a regular MethodCallExpression.
             // However, static import handling uses this, and so are some ASTTransformations like toString, equals, hashCode.
             StaticMethodCallExpression callExpression = (StaticMethodCallExpression) expression;
-            return rerouteCall(Bubblewraps.wrapStaticCall,
+            return guardCall(expression, rerouteCallWithArguments(Bubblewraps.wrapStaticCall, expression, false, false, callExpression.getArguments(),
                     new ClassExpression(callExpression.getOwnerType()),
-                    new ConstantExpression(callExpression.getMethod()),
-                    transformArguments(callExpression.getArguments()),
-                    this.sourceUnitConstantExpression,
-                    new ConstantExpression(expression.getLineNumber()));
+                    new ConstantExpression(callExpression.getMethod())));
         }
         if (expression instanceof MethodPointerExpression) {
             MethodPointerExpression pointerExpression = (MethodPointerExpression) expression;
@@ -313,32 +529,21 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         if (expression instanceof ConstructorCallExpression) {
             ConstructorCallExpression callExpression = (ConstructorCallExpression) expression;
             if (!callExpression.isSpecialCall()) {
-                return rerouteCall(Bubblewraps.wrapConstructorCall,
-                        new ClassExpression(expression.getType()),
-                        transformArguments(callExpression.getArguments()),
-                        this.sourceUnitConstantExpression,
-                        new ConstantExpression(expression.getLineNumber()));
+                return rerouteCallWithArguments(Bubblewraps.wrapConstructorCall, expression, false, false, callExpression.getArguments(),
+                        new ClassExpression(expression.getType()));
             }
         }
         if (expression instanceof AttributeExpression) {
             AttributeExpression attributeExpression = (AttributeExpression) expression;
-            return rerouteCall(Bubblewraps.wrapGetAttribute,
+            return rerouteSiteCall(Bubblewraps.wrapGetAttribute, expression, attributeExpression.isSafe(), attributeExpression.isSpreadSafe(),
                     transform(attributeExpression.getObjectExpression()),
-                    attributeExpression.isSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    attributeExpression.isSpreadSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    transform(attributeExpression.getProperty()),
-                    this.sourceUnitConstantExpression,
-                    new ConstantExpression(expression.getLineNumber()));
+                    transform(attributeExpression.getProperty()));
         }
         if (expression instanceof PropertyExpression) {
             PropertyExpression propertyExpression = (PropertyExpression) expression;
-            return rerouteCall(Bubblewraps.wrapGetProperty,
+            return rerouteSiteCall(Bubblewraps.wrapGetProperty, expression, propertyExpression.isSafe(), propertyExpression.isSpreadSafe(),
                     transformPropertyExpression(propertyExpression),
-                    propertyExpression.isSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    propertyExpression.isSpreadSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    transform(propertyExpression.getProperty()),
-                    this.sourceUnitConstantExpression,
-                    new ConstantExpression(expression.getLineNumber()));
+                    transform(propertyExpression.getProperty()));
         }
         if (expression instanceof DeclarationExpression) {
             handleDeclarations((DeclarationExpression) expression);
@@ -383,14 +588,11 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
                         }
                         bubblewrap = Bubblewraps.wrapSetProperty;
                     }
-                    return rerouteCall(bubblewrap,
+                    return rerouteSiteCall(bubblewrap, expression, propertyExpression.isSafe(), propertyExpression.isSpreadSafe(),
                             transformPropertyExpression(propertyExpression),
                             transform(propertyExpression.getProperty()),
-                            propertyExpression.isSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                            propertyExpression.isSpreadSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
                             new ConstantExpression(binaryExpressionType, true),
-                            this.sourceUnitConstantExpression,
-                            new ConstantExpression(expression.getLineNumber()));
+                            transform(binaryExpression.getRightExpression()));
                 } else if (lhsExpression instanceof FieldExpression) {
                     // While javadoc of FieldExpression isn't very clear
                     // AsmClassGenerator maps this to GETSTATIC/SETSTATIC/GETFIELD/SETFIELD access
@@ -403,7 +605,7 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
                 } else if (lhsExpression instanceof BinaryExpression) {
                     BinaryExpression lhsBinaryExpression = (BinaryExpression) lhsExpression;
                     if (lhsBinaryExpression.getOperation().getType() == Types.LEFT_SQUARE_BRACKET) { // Expression of the form x[y] = z
-                        return rerouteCall(Bubblewraps.wrapSetArray,
+                        return rerouteSiteCall(Bubblewraps.wrapSetArray, expression,
                                 transform(lhsBinaryExpression.getLeftExpression()),
                                 transform(lhsBinaryExpression.getRightExpression()),
                                 new ConstantExpression(binaryExpressionType, true),
@@ -413,39 +615,35 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
                 throw new AssertionError("Unexpected LHS of an assignment: " + lhsExpression.getClass());
             }
             if (binaryExpressionType == Types.LEFT_SQUARE_BRACKET) { // Array reference
-                return rerouteCall(Bubblewraps.wrapGetArray, transform(binaryExpression.getLeftExpression()), transform(binaryExpression.getRightExpression()));
+                return rerouteSiteCall(Bubblewraps.wrapGetArray, expression, transform(binaryExpression.getLeftExpression()), transform(binaryExpression.getRightExpression()));
             } else if (binaryExpressionType == Types.KEYWORD_INSTANCEOF || Operators.isLogicalOperator(binaryExpressionType)) { // instanceof operator or logical operator
                 return super.transform(expression);
+            } else if (binaryExpressionType == Types.COMPARE_IDENTICAL || binaryExpressionType == Types.COMPARE_NOT_IDENTICAL) { // === and !== compare references, calling nothing
+                return super.transform(expression);
             } else if (binaryExpressionType == Types.KEYWORD_IN) {
                 // Membership operator: issue JENKINS-28154
                 // This requires inverted operand order: a in [...] -> [...].isCase(a)
-                return rerouteCall(Bubblewraps.wrapCall,
+                return rerouteSiteCall(Bubblewraps.wrapCall.withArity(1), expression, false, false,
                         transform(binaryExpression.getRightExpression()),
-                        ConstantExpression.PRIM_FALSE,
-                        ConstantExpression.PRIM_FALSE,
                         new ConstantExpression("isCase"),
-                        transform(binaryExpression.getLeftExpression()),
-                        this.sourceUnitConstantExpression,
-                        new ConstantExpression(expression.getLineNumber()));
+                        transform(binaryExpression.getLeftExpression()));
             } else if (Operators.isRegexpComparisonOperator(binaryExpressionType)) {
-                return rerouteCall(Bubblewraps.wrapStaticCall,
+                return rerouteSiteCall(Bubblewraps.wrapStaticCall.withArity(2), expression, false, false,
                         new ClassExpression(new ClassNode(ScriptBytecodeAdapter.class)), // TODO cache?
                         new ConstantExpression(Operators.binaryOperatorMethods(binaryExpressionType)),
                         transform(binaryExpression.getLeftExpression()),
-                        transform(binaryExpression.getRightExpression()),
-                        this.sourceUnitConstantExpression,
-                        new ConstantExpression(expression.getLineNumber()));
+                        transform(binaryExpression.getRightExpression()));
             } else if (Operators.isComparisionOperator(binaryExpressionType)) {
-                return rerouteCall(Bubblewraps.wrapComparison,
+                return guardOperation(expression, () -> rerouteSiteCall(Bubblewraps.wrapComparison, expression,
                         transform(binaryExpression.getLeftExpression()),
                         new ConstantExpression(binaryExpressionType),
-                        transform(binaryExpression.getRightExpression()));
+                        transform(binaryExpression.getRightExpression())));
             } else {
                 // Normally binary operators like a + b. TODO: check what other weird binary operators land here
-                return rerouteCall(Bubblewraps.wrapBinaryOperation,
+                return guardOperation(expression, () -> rerouteSiteCall(Bubblewraps.wrapBinaryOperation, expression,
                         transform(binaryExpression.getLeftExpression()),
                         new ConstantExpression(binaryExpressionType),
-                        transform(binaryExpression.getRightExpression()));
+                        transform(binaryExpression.getRightExpression())));
             }
         }
         if (expression instanceof PrefixExpression) {
@@ -458,16 +656,307 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         }
         if (expression instanceof CastExpression) {
             CastExpression castExpression = (CastExpression) expression;
-            return rerouteCall(Bubblewraps.wrapCast,
+            return guardOperation(expression, () -> rerouteSiteCall(Bubblewraps.wrapCast, expression,
                     new ClassExpression(castExpression.getType()),
                     transform(castExpression.getExpression()),
                     castExpression.isIgnoringAutoboxing() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
                     castExpression.isCoerce() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    castExpression.isStrict() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE);
+                    castExpression.isStrict() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE));
         }
         return super.transform(expression);
     }
 
+    private Expression transformMethodCall(MethodCallExpression callExpression) {
+        // lhs.foo(arg1, arg2) => wrapCall(lhs, "foo", arg1, arg2)
+        // lhs + rhs => lhs.plus(rhs)
+        // Integer.plus(Integer) => DefaultGroovyMethods.plus
+        // lhs || rhs => lhs.or(rhs)
+        Expression objExpression;
+        if (this.withinClosure && callExpression.isImplicitThis() && !variableTracker.isIn(callExpression)) {
+            objExpression = ClosureSupport.getClosureSelfCall();
+        } else {
+            objExpression = transform(callExpression.getObjectExpression());
+        }
+        Expression methodExpression = transform(callExpression.getMethod());
+        if (callExpression.getObjectExpression() instanceof VariableExpression && ((VariableExpression) callExpression.getObjectExpression()).isSuperExpression()) {
+            if (this.currentClass == null) {
+                throw new IllegalStateException("Owning class not defined.");
+            }
+            return rerouteSiteCall(Bubblewraps.wrapSuperCall, callExpression,
+                    this.classExpression,
+                    objExpression,
+                    methodExpression,
+                    transformArguments(callExpression.getArguments()));
+        }
+        if (canRerouteCallSite(callExpression, methodExpression)) {
+            return rerouteCallSite(objExpression,
+                    (String) ((ConstantExpression) methodExpression).getValue(),
+                    callExpression.isSafe(),
+                    transformArguments(callExpression.getArguments()),
+                    callExpression.getLineNumber());
+        }
+        return rerouteCallWithArguments(Bubblewraps.wrapCall, callExpression, callExpression.isSafe(), callExpression.isSpreadSafe(), callExpression.getArguments(),
+                objExpression,
+                methodExpression);
+    }
+
+    /**
+     * Leaves an operation on operands of types known at compile-time as it is, see {@link TypeInference}, folding its operations between constants.
+     * Casts between those types never reach interceptors, anything else is guarded by {@link Bubblewrap#isUnobserved} for each of its operators,
+     * falling back to the wrapped operation. Only the outermost operation is guarded, its operands are wrapped without guards of their own.
+     *
+     * @param wrapping wraps the operation, transforming its operands
+     * @return original, folded or guarded expression, or the wrapped one if the types aren't known or there are too many operators
+     */
+    private Expression guardOperation(Expression expression, Supplier<Expression> wrapping) {
+        if (!this.guardOperations) {
+            return wrapping.get();
+        }
+        List<Expression> guards = new ArrayList<>();
+        if (inferType(expression, guards) == null) {
+            // Its operands may still be guarded on their own
+            return wrapping.get();
+        }
+        if (guards.isEmpty()) {
+            return expression;
+        }
+        Expression wrapped;
+        this.guardOperations = false;
+        try {
+            wrapped = wrapping.get();
+        } finally {
+            this.guardOperations = true;
+        }
+        if (guards.size() > MAX_GUARDED_OPERATORS) {
+            return wrapped;
+        }
+        Expression unwrapped = foldConstants(expression);
+        Expression guard = guards.get(0);
+        for (int i = 1; i < guards.size(); i++) {
+            guard = new BinaryExpression(guard, LOGICAL_AND_TOKEN, guards.get(i));
+        }
+        TernaryExpression guardedExpression = new TernaryExpression(new BooleanExpression(guard), unwrapped, wrapped);
+        guardedExpression.setSourcePosition(expression);
+        return guardedExpression;
+    }
+
+    /**
+     * Folds the operations between constants within an operation whose types are known, bottom-up, see {@link Bubblewrap#fold}.
+     * Strings too long for the constant pool are left to be concatenated as it runs.
+     *
+     * @return the operation with each of its operations between constants replaced by their value
+     */
+    private Expression foldConstants(Expression expression) {
+        if (!(expression instanceof BinaryExpression) && !(expression instanceof CastExpression)) {
+            return expression;
+        }
+        Expression folded = expression.transformExpression(this::foldConstants);
+        if (folded instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) folded;
+            Object lhs = TypeInference.constantOf(binaryExpression.getLeftExpression(), this.withinClosure);
+            Object rhs = lhs == null ? null : TypeInference.constantOf(binaryExpression.getRightExpression(), this.withinClosure);
+            Object value = rhs == null ? null : Bubblewrap.fold(lhs, binaryExpression.getOperation().getType(), rhs);
+            if (value != null && (!(value instanceof String) || fitsConstantPool((String) value))) {
+                ConstantExpression constantExpression = new ConstantExpression(value);
+                constantExpression.setSourcePosition(expression);
+                return constantExpression;
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * @return whether the string fits in a constant pool entry, which holds at most 65535 bytes of modified UTF-8
+     */
+    private static boolean fitsConstantPool(String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length <= 65535;
+    }
+
+    /**
+     * @param guards collects the guards of the operators on the way
+     * @return the class of the value of the expression, or null if unknown
+     */
+    private Class<?> inferType(Expression expression, List<Expression> guards) {
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            int operator = binaryExpression.getOperation().getType();
+            Class<?> lhsType = inferType(binaryExpression.getLeftExpression(), guards);
+            Class<?> rhsType = lhsType == null ? null : inferType(binaryExpression.getRightExpression(), guards);
+            Class<?> type = rhsType == null ? null : TypeInference.resultType(operator, lhsType, rhsType);
+            if (type != null) {
+                guards.add(unobservedGuard(operator, lhsType, rhsType));
+            }
+            return type;
+        }
+        if (expression instanceof CastExpression) {
+            CastExpression castExpression = (CastExpression) expression;
+            return inferType(castExpression.getExpression(), guards) == null ? null : TypeInference.castType(castExpression.getType());
+        }
+        Object constant = TypeInference.constantOf(expression, this.withinClosure);
+        return constant != null ? constant.getClass() : TypeInference.typeOf(expression, this.variableTracker);
+    }
+
+    /**
+     * Makes a call resolved at compile-time to a member of a type with no state to speak of as it is, see {@link TypeInference#receiverType},
+     * as long as the types of its arguments are known too. The call is guarded by {@link Bubblewrap#isUnobservedCall0} and those of its operands,
+     * falling back to the wrapped call.
+     *
+     * @param wrapped the call as it is wrapped otherwise
+     * @return guarded expression, or the wrapped one if the call can't be resolved
+     */
+    private Expression guardCall(Expression expression, Expression wrapped) {
+        List<Expression> guards = new ArrayList<>();
+        boolean isStatic;
+        Class<?> receiverType;
+        String method;
+        Expression arguments;
+        if (expression instanceof StaticMethodCallExpression) {
+            StaticMethodCallExpression callExpression = (StaticMethodCallExpression) expression;
+            isStatic = true;
+            receiverType = TypeInference.staticReceiverType(callExpression.getOwnerType());
+            method = callExpression.getMethod();
+            arguments = callExpression.getArguments();
+        } else {
+            MethodCallExpression callExpression = (MethodCallExpression) expression;
+            if (callExpression.isImplicitThis() || callExpression.isSafe() || callExpression.isSpreadSafe() || callExpression.getMethodAsString() == null) {
+                return wrapped;
+            }
+            Expression receiver = callExpression.getObjectExpression();
+            isStatic = receiver instanceof ClassExpression;
+            receiverType = isStatic ? TypeInference.staticReceiverType(receiver.getType()) : inferReceiverType(receiver, guards);
+            method = callExpression.getMethodAsString();
+            arguments = callExpression.getArguments();
+        }
+        List<Expression> argumentList = arguments instanceof TupleExpression ? ((TupleExpression) arguments).getExpressions() : Collections.singletonList(arguments);
+        if (receiverType == null || argumentList.size() > Bubblewrap.MAX_FIXED_ARITY) {
+            return wrapped;
+        }
+        List<Expression> guardArguments = new ArrayList<>();
+        guardArguments.add(isStatic ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE);
+        guardArguments.add(new ClassExpression(ClassHelper.make(receiverType)));
+        guardArguments.add(new ConstantExpression(method));
+        for (Expression argument : argumentList) {
+            Class<?> argumentType = inferType(argument, guards);
+            if (argumentType == null) {
+                return wrapped;
+            }
+            guardArguments.add(new ClassExpression(ClassHelper.make(argumentType)));
+        }
+        int site = addSite(expression, false, false);
+        guardArguments.add(new FieldExpression(this.siteTable));
+        guardArguments.add(new ConstantExpression(site, true));
+        Expression guard = new StaticMethodCallExpression(BUBBLEWRAP, "isUnobservedCall" + argumentList.size(), new ArgumentListExpression(guardArguments));
+        for (Expression operandGuard : guards) {
+            guard = new BinaryExpression(guard, LOGICAL_AND_TOKEN, operandGuard);
+        }
+        TernaryExpression guardedExpression = new TernaryExpression(new BooleanExpression(guard), expression, wrapped);
+        guardedExpression.setSourcePosition(expression);
+        return guardedExpression;
+    }
+
+    /**
+     * Makes a call within a loop on a local variable the loop leaves alone as it is, guarded by a {@link LoopGuard} made ahead of the loop
+     * and checked with {@link Bubblewrap#isUnobservedLoopCall0} on each iteration, falling back to the wrapped call.
+     * The arguments are evaluated into temporary variables first, so that either call sees them once.
+     *
+     * @return guarded expression, or null if the call isn't made on such a variable
+     */
+    private Expression guardLoopCall(MethodCallExpression callExpression) {
+        LoopContext loop = this.loop;
+        if (loop == null || callExpression.isImplicitThis() || callExpression.isSafe() || callExpression.isSpreadSafe() || callExpression.getMethodAsString() == null) {
+            return null;
+        }
+        if (!(callExpression.getObjectExpression() instanceof VariableExpression)) {
+            return null;
+        }
+        VariableExpression receiver = (VariableExpression) callExpression.getObjectExpression();
+        if (receiver.isThisExpression() || receiver.isSuperExpression() || !this.variableTracker.isIn(receiver) || loop.assigned.contains(receiver.getName())) {
+            return null;
+        }
+        // Closures may assign to variables they share at any time, and primitives are left to guardCall
+        Variable variable = receiver.getAccessedVariable();
+        ClassNode type = this.variableTracker.typeOf(receiver.getName());
+        if (variable == null || variable.isClosureSharedVariable() || (type != null && ClassHelper.isPrimitiveType(type))) {
+            return null;
+        }
+        Expression arguments = callExpression.getArguments();
+        List<Expression> argumentList = arguments instanceof TupleExpression ? ((TupleExpression) arguments).getExpressions() : Collections.singletonList(arguments);
+        if (argumentList.size() > Bubblewrap.MAX_FIXED_ARITY || arguments instanceof NamedArgumentListExpression) {
+            return null;
+        }
+        for (Expression argument : argumentList) {
+            if (argument instanceof SpreadExpression || argument instanceof SpreadMapExpression || argument instanceof NamedArgumentListExpression) {
+                return null;
+            }
+        }
+        String name = LOOP_GUARD_PREFIX + this.loopGuards++;
+        VariableExpression guardVariable = new VariableExpression(name, LOOP_GUARD);
+        loop.declarations.add(new ExpressionStatement(new DeclarationExpression(guardVariable, ASSIGNMENT_TOKEN,
+                rerouteCall("guardLoopCall", new VariableExpression(variable), new ConstantExpression(callExpression.getMethodAsString())))));
+        List<Expression> guardArguments = new ArrayList<>();
+        guardArguments.add(new VariableExpression(guardVariable));
+        List<VariableExpression> temporaries = new ArrayList<>();
+        for (int i = 0; i < argumentList.size(); i++) {
+            VariableExpression temporary = new VariableExpression(name + "$" + i, ClassHelper.OBJECT_TYPE);
+            loop.declarations.add(new ExpressionStatement(new DeclarationExpression(temporary, ASSIGNMENT_TOKEN, EmptyExpression.INSTANCE)));
+            guardArguments.add(new BinaryExpression(new VariableExpression(temporary), ASSIGNMENT_TOKEN, transform(argumentList.get(i))));
+            temporaries.add(temporary);
+        }
+        Expression guard = new StaticMethodCallExpression(BUBBLEWRAP, "isUnobservedLoopCall" + argumentList.size(), new ArgumentListExpression(guardArguments));
+        MethodCallExpression plainCall = loopCall(variable, callExpression, temporaries);
+        MethodCallExpression wrappedCall = loopCall(variable, callExpression, temporaries);
+        TernaryExpression guardedExpression = new TernaryExpression(new BooleanExpression(guard), plainCall, transformMethodCall(wrappedCall));
+        guardedExpression.setSourcePosition(callExpression);
+        return guardedExpression;
+    }
+
+    private static MethodCallExpression loopCall(Variable receiver, MethodCallExpression callExpression, List<VariableExpression> temporaries) {
+        List<Expression> arguments = new ArrayList<>(temporaries.size());
+        for (VariableExpression temporary : temporaries) {
+            arguments.add(new VariableExpression(temporary));
+        }
+        MethodCallExpression loopCall = new MethodCallExpression(new VariableExpression(receiver), callExpression.getMethodAsString(), new ArgumentListExpression(arguments));
+        loopCall.setImplicitThis(false);
+        loopCall.setSourcePosition(callExpression);
+        return loopCall;
+    }
+
+    /**
+     * @return the class of the value of a receiver whose class is known, including fresh list and map literals of known elements, or null if unknown
+     */
+    private Class<?> inferReceiverType(Expression receiver, List<Expression> guards) {
+        if (receiver instanceof ListExpression) {
+            for (Expression element : ((ListExpression) receiver).getExpressions()) {
+                if (inferType(element, guards) == null) {
+                    return null;
+                }
+            }
+            return TypeInference.receiverType(ArrayList.class);
+        }
+        if (receiver instanceof MapExpression) {
+            for (MapEntryExpression entry : ((MapExpression) receiver).getMapEntryExpressions()) {
+                if (inferType(entry.getKeyExpression(), guards) == null || inferType(entry.getValueExpression(), guards) == null) {
+                    return null;
+                }
+            }
+            return TypeInference.receiverType(LinkedHashMap.class);
+        }
+        Class<?> type = inferType(receiver, guards);
+        return type == null ? null : TypeInference.receiverType(type);
+    }
+
+    private Expression unobservedGuard(int operator, Class<?> lhsType, Class<?> rhsType) {
+        return new StaticMethodCallExpression(BUBBLEWRAP, "isUnobserved", new ArgumentListExpression(
+                new ConstantExpression(operator, true),
+                new ClassExpression(ClassHelper.make(lhsType)),
+                rhsType == null ? new ConstantExpression(null) : new ClassExpression(ClassHelper.make(rhsType))));
+    }
+
     /**
      * Transforms the arguments of a call.
      *
@@ -500,6 +989,28 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         return retExpression;
     }
 
+    /**
+     * Transforms the arguments of a call that may be passed one by one.
+     *
+     * @return the transformed arguments, or null if there are more than {@link Bubblewrap#MAX_FIXED_ARITY} or any has to be spread
+     */
+    private List<Expression> transformFixedArguments(Expression expression) {
+        List<Expression> expressions = expression instanceof TupleExpression ? ((TupleExpression) expression).getExpressions() : Collections.singletonList(expression);
+        if (expressions.size() > Bubblewrap.MAX_FIXED_ARITY) {
+            return null;
+        }
+        for (Expression argument : expressions) {
+            if (argument instanceof SpreadExpression) {
+                return null;
+            }
+        }
+        List<Expression> transformed = new ArrayList<>(expressions.size());
+        for (Expression argument : expressions) {
+            transformed.add(transform(argument));
+        }
+        return transformed;
+    }
+
     /**
      * @see org.codehaus.groovy.classgen.asm.BinaryExpressionHelper#evaluateEqual(org.codehaus.groovy.ast.expr.BinaryExpression, boolean)
      */
@@ -522,7 +1033,7 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         if (atomicExpression instanceof BinaryExpression) {
             BinaryExpression binaryExpression = (BinaryExpression) atomicExpression;
             if (binaryExpression.getOperation().getType() == Types.LEFT_SQUARE_BRACKET) {
-                return rerouteCall(side.arrayCall,
+                return rerouteSiteCall(side.arrayCall, wholeExpression,
                         transform(binaryExpression.getLeftExpression()),
                         transform(binaryExpression.getRightExpression()),
                         new ConstantExpression(operation));
@@ -532,6 +1043,7 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         if (atomicExpression instanceof VariableExpression) {
             VariableExpression variableExpression = (VariableExpression) atomicExpression;
             if (this.variableTracker.isIn(variableExpression)) {
+                BinaryExpression replacement;
                 if (side == OperationSide.POSTFIX) {
                     // A trick to rewrite a++ without introducing a new local variable
                     // a++ -> [a, a = a.next()][0]
@@ -539,34 +1051,41 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
                     lhs.addExpression(atomicExpression);
                     MethodCallExpression operationCallExpression = new MethodCallExpression(atomicExpression, operation, ArgumentListExpression.EMPTY_ARGUMENTS);
                     operationCallExpression.setSourcePosition(atomicExpression);
-                    lhs.addExpression(operationCallExpression);
-                    BinaryExpression replacement = new BinaryExpression(lhs, LEFT_SQUARE_BRACKET_TOKEN, new ConstantExpression(0, true));
-                    replacement.setSourcePosition(wholeExpression);
-                    return transform(replacement);
+                    BinaryExpression assignmentExpression = new BinaryExpression(atomicExpression, ASSIGNMENT_TOKEN, operationCallExpression);
+                    assignmentExpression.setSourcePosition(atomicExpression);
+                    lhs.addExpression(assignmentExpression);
+                    replacement = new BinaryExpression(lhs, LEFT_SQUARE_BRACKET_TOKEN, new ConstantExpression(0, true));
                 } else { // ++a -> a = a.next()
                     MethodCallExpression operationCallExpression = new MethodCallExpression(atomicExpression, operation, ArgumentListExpression.EMPTY_ARGUMENTS);
-                    BinaryExpression replacement = new BinaryExpression(atomicExpression, ASSIGNMENT_TOKEN, operationCallExpression);
-                    replacement.setSourcePosition(wholeExpression);
+                    replacement = new BinaryExpression(atomicExpression, ASSIGNMENT_TOKEN, operationCallExpression);
+                }
+                replacement.setSourcePosition(wholeExpression);
+                Class<?> type = TypeInference.typeOf(variableExpression, this.variableTracker);
+                if (type == null) {
                     return transform(replacement);
                 }
+                // A primitive local is stepped as it is while next() / previous() couldn't be seen
+                Expression guard = unobservedGuard("++".equals(task.getText()) ? Types.PLUS_PLUS : Types.MINUS_MINUS, type, null);
+                TernaryExpression guardedExpression = new TernaryExpression(new BooleanExpression(guard), wholeExpression, transform(replacement));
+                guardedExpression.setSourcePosition(wholeExpression);
+                return guardedExpression;
             } else {
                 // If the variable is not in-scope local variable, it gets treated as a property access with implicit this.
                 // See AsmClassGenerator.visitVariableExpression and processClassVariable.
-                PropertyExpression propertyExpression = new PropertyExpression(VariableExpression.THIS_EXPRESSION, variableExpression);
+                PropertyExpression propertyExpression = new PropertyExpression(VariableExpression.THIS_EXPRESSION, variableExpression.getName());
                 propertyExpression.setImplicitThis(true);
                 propertyExpression.setSourcePosition(atomicExpression);
                 atomicExpression = propertyExpression;
                 // Fall through to the "a.b++" case below
             }
         }
-        // a.b++
+        // a.b++ / a.@b++
         if (atomicExpression instanceof PropertyExpression) {
             PropertyExpression propertyExpression = (PropertyExpression) atomicExpression;
-            return rerouteCall(side.propertyCall,
+            return rerouteSiteCall(atomicExpression instanceof AttributeExpression ? side.attributeCall : side.propertyCall, wholeExpression,
+                    propertyExpression.isSafe(), propertyExpression.isSpreadSafe(),
                     transformPropertyExpression(propertyExpression),
-                    transformArguments(propertyExpression.getProperty()),
-                    propertyExpression.isSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
-                    propertyExpression.isSpreadSafe() ? ConstantExpression.PRIM_TRUE : ConstantExpression.PRIM_FALSE,
+                    transform(propertyExpression.getProperty()),
                     new ConstantExpression(operation));
         }
         // a.b++ where a.b is a FieldExpression
@@ -600,16 +1119,37 @@ public class GroovyClassTransformer extends ClassCodeExpressionTransformer imple
         }
     }
 
+    /**
+     * A loop whose calls may be guarded ahead of it.
+     */
+    private static class LoopContext {
+
+        /**
+         * Variables the loop may assign to, calls on which can't be guarded ahead of it.
+         */
+        private final Set<String> assigned;
+        /**
+         * Declarations of the {@link LoopGuard}s and temporary variables of the loop, to be put ahead of it.
+         */
+        private final List<Statement> declarations = new ArrayList<>();
+
+        private LoopContext(Set<String> assigned) {
+            this.assigned = assigned;
+        }
+
+    }
+
     private enum OperationSide {
 
-        PREFIX(Bubblewraps.wrapPrefixArray, Bubblewraps.wrapPrefixProperty),
-        POSTFIX(Bubblewraps.wrapPostfixArray, Bubblewraps.wrapPostfixProperty);
+        PREFIX(Bubblewraps.wrapPrefixArray, Bubblewraps.wrapPrefixProperty, Bubblewraps.wrapPrefixAttribute),
+        POSTFIX(Bubblewraps.wrapPostfixArray, Bubblewraps.wrapPostfixProperty, Bubblewraps.wrapPostfixAttribute);
 
-        private final Bubblewraps arrayCall, propertyCall;
+        private final Bubblewraps arrayCall, propertyCall, attributeCall;
 
-        private OperationSide(Bubblewraps arrayCall, Bubblewraps propertyCall) {
+        private OperationSide(Bubblewraps arrayCall, Bubblewraps propertyCall, Bubblewraps attributeCall) {
             this.arrayCall = arrayCall;
             this.propertyCall = propertyCall;
+            this.attributeCall = attributeCall;
         }
 
     }
@@ -0,0 +1,80 @@
+package com.cleanroommc.groovysandbox.transformer;
+
+import org.codehaus.groovy.ast.ClassNode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Declarations of every scope open within a method, innermost last, shared by the {@link VariableTracker}s of those scopes.
+ * <p>
+ * The innermost declaration of each name is at hand, so looking a variable up doesn't depend on how deeply scopes are nested.
+ * Closing a scope drops the declarations made since it was opened, bringing back those they shadowed.
+ */
+final class ScopeStack {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private ClassNode[] types = new ClassNode[INITIAL_CAPACITY];
+    /**
+     * Index of the declaration each declaration shadows, or -1 if it shadows none.
+     */
+    private int[] shadowed = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    /**
+     * Index of the innermost declaration of each name in scope.
+     */
+    private final Map<String, Integer> innermost = new HashMap<>();
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @param type the declared type of the variable, or null if it is dynamically typed
+     */
+    void declare(String name, ClassNode type) {
+        if (this.size == this.names.length) {
+            int capacity = this.size * 2;
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.shadowed = Arrays.copyOf(this.shadowed, capacity);
+        }
+        Integer previous = this.innermost.put(name, this.size);
+        this.names[this.size] = name;
+        this.types[this.size] = type;
+        this.shadowed[this.size] = previous == null ? -1 : previous;
+        this.size++;
+    }
+
+    /**
+     * Drops the declarations made since the stack was the given size.
+     */
+    void popTo(int size) {
+        while (this.size > size) {
+            int index = --this.size;
+            if (this.shadowed[index] < 0) {
+                this.innermost.remove(this.names[index]);
+            } else {
+                this.innermost.put(this.names[index], this.shadowed[index]);
+            }
+            this.names[index] = null;
+            this.types[index] = null;
+        }
+    }
+
+    boolean contains(String name) {
+        return this.innermost.containsKey(name);
+    }
+
+    /**
+     * @return the declared type of the innermost variable of the name, or null if it is dynamically typed or not in scope
+     */
+    ClassNode typeOf(String name) {
+        Integer index = this.innermost.get(name);
+        return index == null ? null : this.types[index];
+    }
+
+}
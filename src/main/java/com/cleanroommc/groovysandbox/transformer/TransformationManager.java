@@ -6,14 +6,50 @@ import org.codehaus.groovy.ast.expr.Expression;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
+/**
+ * Custom rewrites of expressions, applied by {@link GroovyClassTransformer} before it wraps them.
+ * <p>
+ * Transformations are registered for a type of expression, optionally only where a predicate holds, so that each expression only goes through
+ * those that apply to its class. They run phase by phase, in the order they were registered within a phase.
+ * A transformation may return an expression of another class, the ones after it then run as they apply to that class.
+ */
 public enum TransformationManager {
 
     INSTANCE;
 
-    private final List<UnaryOperator<Expression>> transformations = new ArrayList<>();
-    private final List<UnaryOperator<Expression>> unmodifiableTansformations = Collections.unmodifiableList(transformations);
+    public enum Phase {
+
+        EARLY,
+        DEFAULT,
+        LATE
+
+    }
+
+    /**
+     * Every transformation, sorted by phase.
+     */
+    private final List<Transformation> transformations = new ArrayList<>();
+    private final List<UnaryOperator<Expression>> operators = new ArrayList<>();
+    private final List<UnaryOperator<Expression>> unmodifiableTansformations = Collections.unmodifiableList(operators);
+    /**
+     * Transformations as they apply to each class of expression, recomputed when {@link #version} moves on.
+     */
+    private final ClassValue<Dispatch> dispatches = new ClassValue<Dispatch>() {
+        @Override
+        protected Dispatch computeValue(Class<?> type) {
+            return new Dispatch(type);
+        }
+    };
+
+    /**
+     * Bumped whenever a transformation is registered, so that {@link #dispatches} can be recomputed.
+     */
+    private volatile int version = 0;
 
     TransformationManager() {
         /*
@@ -29,20 +65,163 @@ public enum TransformationManager {
          */
     }
 
+    /**
+     * Registers a transformation of every expression, in the {@link Phase#DEFAULT} phase.
+     */
     public void register(UnaryOperator<Expression> transformation) {
-        this.transformations.add(transformation);
+        register(Phase.DEFAULT, Expression.class, null, transformation);
+    }
+
+    public <T extends Expression> void register(Class<T> type, Function<? super T, ? extends Expression> transformation) {
+        register(Phase.DEFAULT, type, null, transformation);
+    }
+
+    public <T extends Expression> void register(Class<T> type, Predicate<? super T> predicate, Function<? super T, ? extends Expression> transformation) {
+        register(Phase.DEFAULT, type, predicate, transformation);
+    }
+
+    public <T extends Expression> void register(Phase phase, Class<T> type, Function<? super T, ? extends Expression> transformation) {
+        register(phase, type, null, transformation);
     }
 
+    /**
+     * @param type the class of expressions to transform, subclasses included
+     * @param predicate which of those to transform, or null for all of them
+     */
+    public <T extends Expression> void register(Phase phase, Class<T> type, Predicate<? super T> predicate, Function<? super T, ? extends Expression> transformation) {
+        Transformation entry = new Transformation(phase, type, predicate, transformation);
+        // After every transformation of the same or an earlier phase
+        int index = this.transformations.size();
+        while (index > 0 && this.transformations.get(index - 1).phase.compareTo(phase) > 0) {
+            index--;
+        }
+        this.transformations.add(index, entry);
+        this.operators.add(index, entry::applyIfApplicable);
+        this.version++;
+    }
+
+    /**
+     * @return a number that changes whenever a transformation is registered
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return every transformation in the order they run, each leaving expressions it doesn't apply to as they are
+     */
     public List<UnaryOperator<Expression>> getTransformations() {
         return unmodifiableTansformations;
     }
 
     public Expression transform(Expression expression) {
-        Expression transformedExpression = expression;
-        for (int i = 0; i < this.transformations.size(); i++) {
-            transformedExpression = this.transformations.get(i).apply(transformedExpression);
+        if (this.transformations.isEmpty()) {
+            return expression;
+        }
+        return transform(expression, dispatch(expression.getClass()));
+    }
+
+    /**
+     * Transforms each of the expressions in place, working out which transformations apply once for each run of expressions of the same class.
+     */
+    public void transformAll(List<Expression> expressions) {
+        if (this.transformations.isEmpty()) {
+            return;
+        }
+        Dispatch dispatch = null;
+        for (ListIterator<Expression> iterator = expressions.listIterator(); iterator.hasNext(); ) {
+            Expression expression = iterator.next();
+            if (dispatch == null || dispatch.type != expression.getClass()) {
+                dispatch = dispatch(expression.getClass());
+            }
+            iterator.set(transform(expression, dispatch));
+        }
+    }
+
+    private Expression transform(Expression expression, Dispatch dispatch) {
+        // Position of the last transformation applied among all of them
+        int position = -1;
+        for (int i = 0; i < dispatch.applicable.length; i++) {
+            Transformation transformation = dispatch.applicable[i];
+            if (dispatch.positions[i] <= position || !transformation.test(expression)) {
+                continue;
+            }
+            Expression transformedExpression = transformation.apply(expression);
+            position = dispatch.positions[i];
+            if (transformedExpression.getClass() != expression.getClass()) {
+                // Carries on with the transformations that apply to the new class, after this one
+                dispatch = dispatch(transformedExpression.getClass());
+                i = -1;
+            }
+            expression = transformedExpression;
+        }
+        return expression;
+    }
+
+    private Dispatch dispatch(Class<?> type) {
+        Dispatch dispatch = this.dispatches.get(type);
+        if (dispatch.version != this.version) {
+            this.dispatches.remove(type);
+            dispatch = this.dispatches.get(type);
+        }
+        return dispatch;
+    }
+
+    private static class Transformation {
+
+        private final Phase phase;
+        private final Class<? extends Expression> type;
+        private final Predicate<Expression> predicate;
+        private final Function<Expression, ? extends Expression> transformation;
+
+        @SuppressWarnings("unchecked")
+        private <T extends Expression> Transformation(Phase phase, Class<T> type, Predicate<? super T> predicate, Function<? super T, ? extends Expression> transformation) {
+            this.phase = phase;
+            this.type = type;
+            // Only ever given expressions of the type
+            this.predicate = (Predicate<Expression>) predicate;
+            this.transformation = (Function<Expression, ? extends Expression>) transformation;
         }
-        return transformedExpression;
+
+        private boolean test(Expression expression) {
+            return this.predicate == null || this.predicate.test(expression);
+        }
+
+        private Expression apply(Expression expression) {
+            return this.transformation.apply(expression);
+        }
+
+        private Expression applyIfApplicable(Expression expression) {
+            return this.type.isInstance(expression) && test(expression) ? apply(expression) : expression;
+        }
+
+    }
+
+    private class Dispatch {
+
+        private final int version;
+        private final Class<?> type;
+        /**
+         * Transformations of expressions of the class, in the order they run, along with their positions among all of them.
+         */
+        private final Transformation[] applicable;
+        private final int[] positions;
+
+        private Dispatch(Class<?> type) {
+            this.version = TransformationManager.this.version;
+            this.type = type;
+            List<Transformation> applicable = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            for (int i = 0; i < transformations.size(); i++) {
+                if (transformations.get(i).type.isAssignableFrom(type)) {
+                    applicable.add(transformations.get(i));
+                    positions.add(i);
+                }
+            }
+            this.applicable = applicable.toArray(new Transformation[0]);
+            this.positions = positions.stream().mapToInt(Integer::intValue).toArray();
+        }
+
     }
 
 }
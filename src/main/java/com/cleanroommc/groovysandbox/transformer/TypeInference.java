@@ -0,0 +1,165 @@
+package com.cleanroommc.groovysandbox.transformer;
+
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.PropertyNode;
+import org.codehaus.groovy.ast.Variable;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.syntax.Types;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Flow-insensitive inference of the runtime classes of operands, from the declared types of variables and the types of literals.
+ * <p>
+ * Only classes that values can't differ from are inferred: those of literals, of primitive variables, which Groovy casts everything assigned to,
+ * and of arithmetic between those. Variables of reference types might always hold null, so they are left unknown.
+ */
+final class TypeInference {
+
+    /**
+     * @return the class of the value of a literal or primitive variable, boxed, or null if unknown
+     */
+    static Class<?> typeOf(Expression expression, VariableTracker variableTracker) {
+        if (expression instanceof ConstantExpression) {
+            Object value = ((ConstantExpression) expression).getValue();
+            return value != null && isKnown(value.getClass()) ? value.getClass() : null;
+        }
+        if (expression instanceof VariableExpression && variableTracker != null) {
+            ClassNode type = variableTracker.typeOf(((VariableExpression) expression).getName());
+            return type != null && ClassHelper.isPrimitiveType(type) ? known(ClassHelper.getWrapper(type)) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Static final fields of the classes being compiled count as constants if they are initialised to a literal of their own type.
+     * Closures resolve names through their delegate first, so there they might not be the fields at all.
+     *
+     * @return the value of a literal or of a static final field initialised to one, or null if not constant
+     */
+    static Object constantOf(Expression expression, boolean withinClosure) {
+        if (expression instanceof ConstantExpression) {
+            Object value = ((ConstantExpression) expression).getValue();
+            return value != null && isKnown(value.getClass()) ? value : null;
+        }
+        if (expression instanceof VariableExpression && !withinClosure) {
+            Variable variable = ((VariableExpression) expression).getAccessedVariable();
+            FieldNode field = variable instanceof PropertyNode ? ((PropertyNode) variable).getField() : variable instanceof FieldNode ? (FieldNode) variable : null;
+            if (field == null || !field.isStatic() || !field.isFinal() || !(field.getInitialExpression() instanceof ConstantExpression)) {
+                return null;
+            }
+            Object value = ((ConstantExpression) field.getInitialExpression()).getValue();
+            if (value == null || !isKnown(value.getClass())) {
+                return null;
+            }
+            // Otherwise Groovy casts the value to the type of the field
+            return field.isDynamicTyped() || known(ClassHelper.getWrapper(field.getType())) == value.getClass() ? value : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return the class of the value of a cast of a known operand to the type, or null if unknown
+     */
+    static Class<?> castType(ClassNode type) {
+        return known(ClassHelper.isPrimitiveType(type) ? ClassHelper.getWrapper(type) : type);
+    }
+
+    /**
+     * Instance methods of these classes may be called as they are, as long as nobody could tell the difference.
+     * They hold no state, except for list and map literals, which are made anew at the call.
+     */
+    private static final Set<Class<?>> RECEIVER_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Integer.class, Long.class, Double.class, BigDecimal.class, ArrayList.class, LinkedHashMap.class));
+    /**
+     * Static methods of these classes may be called as they are, as long as nobody could tell the difference.
+     */
+    private static final Set<Class<?>> STATIC_RECEIVER_TYPES = new HashSet<>(Arrays.asList(
+            Math.class, StrictMath.class, String.class, Integer.class, Long.class, Double.class, BigDecimal.class));
+
+    /**
+     * @return the class of the receiver if its instance methods may be called as they are, null otherwise
+     */
+    static Class<?> receiverType(Class<?> type) {
+        return RECEIVER_TYPES.contains(type) ? type : null;
+    }
+
+    /**
+     * @return the class if its static methods may be called as they are, null otherwise
+     */
+    static Class<?> staticReceiverType(ClassNode type) {
+        return type.isResolved() && STATIC_RECEIVER_TYPES.contains(type.getTypeClass()) ? type.getTypeClass() : null;
+    }
+
+    /**
+     * Works out the class of the result as {@link org.codehaus.groovy.runtime.typehandling.NumberMath} would.
+     *
+     * @return the class of the result of the operation, or null if unknown
+     */
+    static Class<?> resultType(int operator, Class<?> lhs, Class<?> rhs) {
+        if (lhs == String.class || rhs == String.class) {
+            if (operator == Types.PLUS && lhs == rhs) {
+                return String.class;
+            }
+            return lhs == rhs && isComparison(operator) ? Boolean.class : null;
+        }
+        if (isComparison(operator)) {
+            return operator == Types.COMPARE_TO ? Integer.class : Boolean.class;
+        }
+        boolean integral = isIntegral(lhs) && isIntegral(rhs);
+        switch (operator) {
+            case Types.PLUS:
+            case Types.MINUS:
+            case Types.MULTIPLY:
+            case Types.MOD:
+                return widest(lhs, rhs);
+            case Types.DIVIDE:
+                // Integral division is exact in Groovy
+                return integral ? BigDecimal.class : widest(lhs, rhs);
+            case Types.BITWISE_OR:
+            case Types.BITWISE_AND:
+            case Types.BITWISE_XOR:
+                return integral ? widest(lhs, rhs) : null;
+            case Types.LEFT_SHIFT:
+            case Types.RIGHT_SHIFT:
+            case Types.RIGHT_SHIFT_UNSIGNED:
+                return integral ? lhs : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isComparison(int operator) {
+        return operator >= Types.COMPARE_NOT_EQUAL && operator <= Types.COMPARE_TO && operator != Types.COMPARE_IDENTICAL && operator != Types.COMPARE_NOT_IDENTICAL;
+    }
+
+    private static Class<?> widest(Class<?> lhs, Class<?> rhs) {
+        if (lhs == Double.class || rhs == Double.class) {
+            return Double.class;
+        }
+        if (lhs == BigDecimal.class || rhs == BigDecimal.class) {
+            return BigDecimal.class;
+        }
+        return lhs == Long.class || rhs == Long.class ? Long.class : Integer.class;
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == Integer.class || type == Long.class;
+    }
+
+    private static Class<?> known(ClassNode type) {
+        return type.isResolved() && isKnown(type.getTypeClass()) ? type.getTypeClass() : null;
+    }
+
+    private static boolean isKnown(Class<?> type) {
+        return type == Integer.class || type == Long.class || type == Double.class || type == BigDecimal.class || type == String.class;
+    }
+
+    private TypeInference() { }
+
+}
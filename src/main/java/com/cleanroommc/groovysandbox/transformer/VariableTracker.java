@@ -1,18 +1,20 @@
 package com.cleanroommc.groovysandbox.transformer;
 
+import org.codehaus.groovy.ast.ClassNode;
 import org.codehaus.groovy.ast.Variable;
 import org.codehaus.groovy.ast.expr.Expression;
 import org.codehaus.groovy.ast.expr.VariableExpression;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Keep track of in-scope variables on the stack.
  * <p>
  * In groovy, various statements implicitly create new scopes (as in Java), so we track them in a chain.
+ * The declarations of all of them are kept together in one {@link ScopeStack}, each scope only remembering where its own declarations begin.
+ * Variables are always declared in the innermost scope.
  * <p>
  * This only tracks variables on stack (as opposed to field access and closure accessing variables in the calling context).
+ * <p>
+ * The declared types of variables are kept too, which Groovy casts every value assigned to, see {@link TypeInference}.
  *
  * @author Kohsuke Kawaguchi
  */
@@ -20,29 +22,37 @@ public class VariableTracker implements AutoCloseable {
 
     final VariableVisitor owner;
     final VariableTracker parent;
-    final Set<String> names = new HashSet<>();
+    final ScopeStack scopes;
+    /**
+     * Size of the scope stack as this scope was opened, the declarations past it are of this scope.
+     */
+    final int start;
 
     public VariableTracker(VariableVisitor owner) {
         this.owner = owner;
         this.parent = owner.getVariableTracker();
+        this.scopes = this.parent == null ? new ScopeStack() : this.parent.scopes;
+        this.start = this.scopes.size();
         owner.setVariableTracker(this);
     }
 
     public void declare(String name) {
-        this.names.add(name);
+        this.scopes.declare(name, null);
     }
 
     public void declare(Variable variable) {
-        this.names.add(variable.getName());
+        this.scopes.declare(variable.getName(), variable.isDynamicTyped() ? null : variable.getOriginType());
     }
 
     public boolean isIn(String name) {
-        for (VariableTracker tracker = this; tracker != null; tracker = tracker.parent) {
-            if (tracker.names.contains(name)) {
-                return true;
-            }
-        }
-        return false;
+        return this.scopes.contains(name);
+    }
+
+    /**
+     * @return the declared type of the in-scope variable, or null if it is dynamically typed or not on stack
+     */
+    public ClassNode typeOf(String name) {
+        return this.scopes.typeOf(name);
     }
 
     public boolean isIn(VariableExpression expression) {
@@ -55,6 +65,7 @@ public class VariableTracker implements AutoCloseable {
 
     @Override
     public void close() {
+        this.scopes.popTo(this.start);
         this.owner.setVariableTracker(this.parent);
     }
 
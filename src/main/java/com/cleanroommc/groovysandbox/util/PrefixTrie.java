@@ -0,0 +1,77 @@
+package com.cleanroommc.groovysandbox.util;
+
+import java.util.Arrays;
+
+/**
+ * A character trie answering whether any of its prefixes starts a given string, in time linear to the string rather than to the number of prefixes.
+ */
+public class PrefixTrie {
+
+    private final Node root = new Node();
+
+    public void add(String prefix) {
+        Node node = this.root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.childOrCreate(prefix.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * @return true if the string starts with any of the prefixes added
+     */
+    public boolean matches(String string) {
+        Node node = this.root;
+        if (node.terminal) {
+            return true;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            node = node.child(string.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        // Sorted, so children are found by binary search
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private boolean terminal;
+
+        private Node child(char key) {
+            int index = Arrays.binarySearch(this.keys, key);
+            return index < 0 ? null : this.children[index];
+        }
+
+        private Node childOrCreate(char key) {
+            int index = Arrays.binarySearch(this.keys, key);
+            if (index >= 0) {
+                return this.children[index];
+            }
+            index = -index - 1;
+            char[] keys = new char[this.keys.length + 1];
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, index);
+            System.arraycopy(this.children, 0, children, 0, index);
+            System.arraycopy(this.keys, index, keys, index + 1, this.keys.length - index);
+            System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+            Node child = new Node();
+            keys[index] = key;
+            children[index] = child;
+            this.children = children;
+            this.keys = keys;
+            return child;
+        }
+
+    }
+
+}
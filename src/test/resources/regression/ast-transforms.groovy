@@ -0,0 +1,49 @@
+// Code generated by Groovy's own AST transformations calls into its runtime, which the default bans must leave alone
+
+import groovy.transform.Canonical
+import groovy.transform.Immutable
+import groovy.transform.Memoized
+import groovy.transform.ToString
+
+@ToString
+class Point {
+    int x
+}
+
+@Canonical
+class Pair {
+    int left
+    List right
+}
+
+@Immutable
+class Money {
+    int amount
+    String currency
+}
+
+class Doubler {
+    int calls = 0
+
+    @Memoized
+    int twice(int value) {
+        calls++
+        value * 2
+    }
+}
+
+assert new Point(x: 1).toString() == 'Point(1)'
+
+def pair = new Pair(1, [2])
+assert pair.toString() == 'Pair(1, [2])'
+assert pair == new Pair(1, [2])
+assert pair.hashCode() == new Pair(1, [2]).hashCode()
+
+def money = new Money(amount: 5, currency: 'EUR')
+assert money.toString() == 'Money(5, EUR)'
+assert money == new Money(5, 'EUR')
+
+def doubler = new Doubler()
+assert doubler.twice(2) == 4
+assert doubler.twice(2) == 4
+assert doubler.calls == 1